@@ -0,0 +1,22 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+//Runs all benchmarks (or only those matching first argument) with gc profiler, so allocation rate is reported too
+//Run from repository root, so that "files" folder is found
+
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include((args.length > 0) ? args[0] : "benchmark\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-D" + Corpus.FILES_PROPERTY + "=" + System.getProperty(Corpus.FILES_PROPERTY, "files"))
+                .build();
+
+        new Runner(options).run();
+    }
+}
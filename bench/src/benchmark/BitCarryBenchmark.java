@@ -0,0 +1,79 @@
+package benchmark;
+
+import compression.BitCarry;
+import compression.BitReader;
+import compression.BitWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Pushing and reading same random bit stream with old BitCarry and new BitWriter/BitReader
+//Every benchmark is credited with length of the flushed stream, which is the same for all of them, so the rates can be
+//compared directly, setup checks that BitCarry and BitWriter really produce the same bytes
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitCarryBenchmark {
+    private static final int VALUES = 1 << 16;
+
+    @Param({ "1", "8", "13" })
+    public int size;
+
+    private long[] values;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        values = new long[VALUES];
+        for (int i = 0; i < VALUES; i++) { values[i] = random.nextLong() & ((1L << size) - 1); }
+
+        BitWriter bitWriter = new BitWriter();
+        for (long value : values) { bitWriter.pushBits(value, size); }
+        encoded = bitWriter.getBytes(true);
+
+        BitCarry bitCarry = new BitCarry();
+        for (long value : values) { bitCarry.pushBits(value, size); }
+        if (!Arrays.equals(encoded, bitCarry.getBytes(true))) { throw new IllegalStateException("BitWriter and BitCarry streams differ"); }
+    }
+
+    @Benchmark
+    public byte[] bitCarryPushBits(Throughput throughput) {
+        BitCarry bitCarry = new BitCarry();
+        for (long value : values) { bitCarry.pushBits(value, size); }
+        throughput.add(encoded.length);
+        return bitCarry.getBytes(true);
+    }
+
+    @Benchmark
+    public byte[] bitWriterPushBits(Throughput throughput) {
+        BitWriter bitWriter = new BitWriter();
+        for (long value : values) { bitWriter.pushBits(value, size); }
+        throughput.add(encoded.length);
+        return bitWriter.getBytes(true);
+    }
+
+    @Benchmark
+    public long bitCarryGetBits(Throughput throughput) {
+        BitCarry bitCarry = new BitCarry(encoded);
+        long sum = 0;
+        for (int i = 0; i < VALUES; i++) { sum += bitCarry.getBits(size); }
+        throughput.add(encoded.length);
+        return sum;
+    }
+
+    @Benchmark
+    public long bitReaderGetBits(Throughput throughput) {
+        BitReader bitReader = new BitReader(encoded);
+        long sum = 0;
+        for (int i = 0; i < VALUES; i++) { sum += bitReader.getBits(size); }
+        throughput.add(encoded.length);
+        return sum;
+    }
+}
@@ -0,0 +1,43 @@
+package benchmark;
+
+import compression.CompressionType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//End to end compression and decompression for every compression type, bytes are counted as uncompressed size
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({ "DEFLATE", "HUFFMAN", "LZSS" })
+    public CompressionType compressionType;
+
+    @Param({ "File1.html", "File2.html", "shrek.txt", "small.txt", "screenshot.png", "monkey.bmp" })
+    public String filename;
+
+    private byte[] data;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() {
+        data = Corpus.read(filename);
+        compressed = compressionType.compress(data);
+    }
+
+    @Benchmark
+    public byte[] compress(Throughput throughput) {
+        throughput.add(data.length);
+        return compressionType.compress(data);
+    }
+
+    @Benchmark
+    public byte[] decompress(Throughput throughput) {
+        throughput.add(data.length);
+        return compressionType.decompress(compressed);
+    }
+}
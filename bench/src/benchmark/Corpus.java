@@ -0,0 +1,25 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+//Files from "files" folder of repository, folder can be changed with -Dnzip.files=path
+
+public class Corpus {
+    public static final String FILES_PROPERTY = "nzip.files";
+
+    public static Path getPath(String filename) {
+        return Paths.get(System.getProperty(FILES_PROPERTY, "files"), filename);
+    }
+
+    public static byte[] read(String filename) {
+        try {
+            return Files.readAllBytes(getPath(filename));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can't read corpus file, run from repository root or set -D" + FILES_PROPERTY, ex);
+        }
+    }
+}
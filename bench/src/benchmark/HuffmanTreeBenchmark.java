@@ -0,0 +1,32 @@
+package benchmark;
+
+import compression.huffman.HuffmanTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//Frequency counting and tree building for whole file
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HuffmanTreeBenchmark {
+    @Param({ "File2.html", "monkey.bmp" })
+    public String filename;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = Corpus.read(filename);
+    }
+
+    @Benchmark
+    public HuffmanTree build(Throughput throughput) {
+        throughput.add(data.length);
+        return new HuffmanTree(data);
+    }
+}
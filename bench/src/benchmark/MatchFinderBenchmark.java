@@ -0,0 +1,59 @@
+package benchmark;
+
+import compression.lz77.HashChain;
+import compression.lz77.SuffixArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//Greedy parse of whole file with SuffixArray and HashChain, same parameters as LZ77EncoderV2 uses
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class MatchFinderBenchmark {
+    private static final int MIN_DATA_LENGTH = 4;
+    private static final int LOOK_AHEAD_BUFFER_SIZE = 259;
+    private static final int SEARCH_BUFFER_SIZE = (1 << 16) + 1;
+
+    @Param({ "File1.html", "shrek.txt", "screenshot.png" })
+    public String filename;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = Corpus.read(filename);
+    }
+
+    @Benchmark
+    public int suffixArray(Throughput throughput) {
+        SuffixArray suffixArray = new SuffixArray(data, LOOK_AHEAD_BUFFER_SIZE, SEARCH_BUFFER_SIZE, MIN_DATA_LENGTH);
+        int matches = 0;
+
+        for (int position = 0; position < data.length - MIN_DATA_LENGTH;) {
+            int length = suffixArray.nextLongestMatch(position)[0];
+            if (length >= MIN_DATA_LENGTH) { position += length; matches++; } else { position++; }
+        }
+
+        throughput.add(data.length);
+        return matches;
+    }
+
+    @Benchmark
+    public int hashChain(Throughput throughput) {
+        HashChain hashChain = new HashChain(data, LOOK_AHEAD_BUFFER_SIZE, SEARCH_BUFFER_SIZE, MIN_DATA_LENGTH);
+        int matches = 0;
+
+        for (int position = 0; position < data.length - MIN_DATA_LENGTH;) {
+            int length = hashChain.nextLongestMatch(position)[0];
+            if (length >= MIN_DATA_LENGTH) { position += length; matches++; } else { position++; }
+        }
+
+        throughput.add(data.length);
+        return matches;
+    }
+}
@@ -0,0 +1,29 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+//Counts processed bytes, JMH reports every public number getter as rate next to ops/s, benchmarks use seconds, so "mb" is MB/s
+
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+    private long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        bytes = 0;
+    }
+
+    void add(long length) {
+        bytes += length;
+    }
+
+    //Megabytes of 10^6 bytes, same unit as MB/s of other tools
+    public double mb() {
+        return bytes / 1e6;
+    }
+}
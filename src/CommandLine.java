@@ -0,0 +1,248 @@
+import compression.CompressionLevel;
+import compression.CompressionType;
+import compression.ProgressTracker;
+import compression.stream.NzipFiles;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+//Non-interactive mode, used when Main gets arguments, so it can be run from scripts:
+//  comp [-r] [-f] [-j threads] [-t deflate|huffman|lzss] [-l level] <file or directory>...
+//  decomp [-r] [-f] [-j threads] <file or directory>...
+//Compressed file is written next to source with extension of compression type, decompression removes it
+//Output goes to a temporary file in the same directory which is moved into place only when it is complete, so failed
+//file leaves nothing behind. Existing outputs are replaced only with -f, without it a file named on command line fails
+//when its output exists, while a file found by walking a directory is skipped and counted separately
+//Directories are walked only with -r, then files which don't fit the command (already compressed files for comp,
+//files without nzip extension for decomp) are left out, so the same growing directory can be processed again and
+//again, only new files are processed and exit code stays 0
+//Files are processed by "threads" workers at once, their blocks share one pool of "threads" threads, so -j bounds both
+//cpu and memory use, at the end total sizes and throughput are printed
+
+public class CommandLine {
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: comp [-r] [-f] [-j threads] [-t deflate|huffman|lzss] [-l level] <file or directory>...",
+            "       decomp [-r] [-f] [-j threads] <file or directory>...");
+
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private boolean compress;
+    private boolean recursive = false;
+    private boolean force = false;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private CompressionType compressionType = CompressionType.DEFLATE;
+    private int level = CompressionLevel.DEFAULT_LEVEL;
+    private final List<Path> paths = new ArrayList<>();
+    private final Set<Path> named = new HashSet<>(); //Files given on command line, not found by walking a directory
+    private ForkJoinPool blockPool;
+    private int blockParallelism;
+
+    //Returns exit code: 0 when everything went fine, 1 when some files failed, 2 when arguments are wrong
+    public static int run(String[] args) {
+        CommandLine commandLine = new CommandLine();
+
+        try {
+            commandLine.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        return commandLine.execute();
+    }
+
+    private void parse(String[] args) {
+        if (args[0].equals("comp")) {
+            compress = true;
+        } else if (args[0].equals("decomp")) {
+            compress = false;
+        } else {
+            throw new IllegalArgumentException("unknown command: " + args[0]);
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-r": recursive = true; break;
+                case "-f": force = true; break;
+                case "-j": threads = parseNumber(args, ++i, "-j"); break;
+                case "-l": level = parseNumber(args, ++i, "-l"); CompressionLevel.of(level); break;
+                case "-t": compressionType = parseType(args, ++i); break;
+                default:
+                    if (args[i].startsWith("-")) { throw new IllegalArgumentException("unknown option: " + args[i]); }
+                    paths.add(Paths.get(args[i]));
+            }
+        }
+
+        if (threads < 1) { throw new IllegalArgumentException("-j must be at least 1"); }
+        if (paths.isEmpty()) { throw new IllegalArgumentException("no files given"); }
+    }
+
+    private static int parseNumber(String[] args, int i, String option) {
+        if (i >= args.length) { throw new IllegalArgumentException(option + " needs a value"); }
+
+        try {
+            return Integer.parseInt(args[i]);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(option + " needs a number: " + args[i]);
+        }
+    }
+
+    private static CompressionType parseType(String[] args, int i) {
+        if (i >= args.length) { throw new IllegalArgumentException("-t needs a value"); }
+
+        for (CompressionType compressionType : CompressionType.COMPRESSION_TYPES) {
+            if (compressionType.getName().equalsIgnoreCase(args[i])) { return compressionType; }
+        }
+
+        throw new IllegalArgumentException("unknown compression type: " + args[i]);
+    }
+
+    private int execute() {
+        List<Path> files = new ArrayList<>();
+
+        for (Path path : paths) {
+            try {
+                List<Path> collected = collect(path);
+                if (!Files.isDirectory(path)) { named.addAll(collected); }
+                files.addAll(collected);
+            } catch (IOException | IllegalArgumentException ex) {
+                System.err.println(path + ": " + ex.getMessage());
+                failed.incrementAndGet();
+            }
+        }
+
+        //Threads left over when there are fewer files than workers go to blocks of the files which are there
+        long start = System.nanoTime();
+        int workers = Math.min(threads, Math.max(files.size(), 1));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        blockPool = new ForkJoinPool(threads);
+        blockParallelism = Math.max(threads / workers, 1);
+        List<Future<?>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) { tasks.add(executor.submit(() -> process(file))); }
+
+        //Every file is waited for on its own, one failure must not stop waiting for the others
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).get();
+            } catch (ExecutionException ex) {
+                System.err.println(files.get(i) + ": " + ex.getCause());
+                failed.incrementAndGet();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                System.err.println(files.get(i) + ": interrupted");
+                failed.incrementAndGet();
+            }
+        }
+
+        executor.shutdown();
+        blockPool.shutdown();
+
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+        long in = bytesIn.get(), out = bytesOut.get();
+        long raw = compress ? in : out, compressed = compress ? out : in; //Ratio and throughput are of uncompressed data
+
+        System.out.printf(Locale.US, "%d files, %d skipped, %d failed, %d -> %d bytes (ratio %.3f) in %.2f s, %.2f MB/s%n",
+                processed.get(), skipped.get(), failed.get(), in, out, (double) raw / Math.max(compressed, 1), seconds, raw / seconds / (1 << 20));
+        return (failed.get() == 0) ? 0 : 1;
+    }
+
+    //Files of path which this command should process
+    private List<Path> collect(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            if (!Files.isRegularFile(path)) { throw new IllegalArgumentException("no such file"); }
+            if (!compress && (CompressionType.getCompressed(path.toString()) == null)) { throw new IllegalArgumentException("unknown extension"); }
+            return List.of(path);
+        }
+
+        if (!recursive) { throw new IllegalArgumentException("is a directory (use -r)"); }
+
+        try (Stream<Path> stream = Files.walk(path)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(file -> compress == (CompressionType.getCompressed(file.toString()) == null))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    private void process(Path source) {
+        String name = source.getFileName().toString();
+        Path target = source.resolveSibling(compress ? name + compressionType.getExtension() : name.substring(0, name.lastIndexOf('.')));
+        Path temp = null;
+
+        try {
+            if (!force && Files.exists(target)) {
+                if (named.contains(source)) { throw new FileAlreadyExistsException(target + " already exists (use -f)"); }
+                skipped.incrementAndGet();
+                return;
+            }
+
+            long size = Files.size(source);
+            long result;
+
+            //Pid keeps temporary names of concurrent runs apart, createFile fails instead of sharing one
+            temp = Files.createFile(target.resolveSibling("." + target.getFileName() + "." + ProcessHandle.current().pid() + ".tmp"));
+            if (compress) {
+                result = NzipFiles.compress(source, temp, compressionType, level, ProgressTracker.NONE, blockPool, blockParallelism);
+            } else {
+                result = NzipFiles.decompress(source, temp, ProgressTracker.NONE, true, blockPool, blockParallelism);
+            }
+
+            move(temp, target);
+            temp = null;
+            bytesIn.addAndGet(size);
+            bytesOut.addAndGet(result);
+            processed.incrementAndGet();
+        } catch (IOException | RuntimeException ex) {
+            System.err.println(source + ": " + ex.getMessage());
+            failed.incrementAndGet();
+        } finally {
+            deleteQuietly(temp);
+        }
+    }
+
+    //Without -f target which appeared in the meantime is not replaced either, plain move fails when target exists
+    private void move(Path temp, Path target) throws IOException {
+        if (!force) {
+            Files.move(temp, target);
+            return;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) { return; }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            System.err.println(path + ": " + ex.getMessage());
+        }
+    }
+}
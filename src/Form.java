@@ -1,13 +1,18 @@
+import compression.CompressionLevel;
 import compression.CompressionType;
+import compression.ProgressListener;
+import compression.ProgressTracker;
+import compression.stream.NzipFiles;
+import compression.stream.NzipFormat;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Locale;
-import java.util.function.Consumer;
 
 public class Form {
     public static int WIDTH = 350;
@@ -71,10 +76,12 @@ public class Form {
         jFrame.setVisible(true);
         jFrame.setLocationRelativeTo(null);
 
-        Consumer<Float> progressCallback = progress -> {
+        //Work runs on its own thread, so progress bar is updated later on event dispatch thread
+        ProgressListener progressListener = (done, total) -> SwingUtilities.invokeLater(() -> {
+            float progress = ProgressListener.percent(done, total);
             progressBar1.setValue(Math.round(progress));
             progressBar1.setString(String.format(Locale.US, "%.2f%%", progress));
-        };
+        });
 
         button0.addActionListener(e -> {
             JOptionPane.showMessageDialog(jFrame, Main.ABOUT, "About", JOptionPane.PLAIN_MESSAGE);
@@ -117,19 +124,17 @@ public class Form {
             try {
                 button2.setEnabled(false);
                 button3.setEnabled(false);
-                byte[] data = Files.readAllBytes(Paths.get(textField1.getText()));
-                int filesize = data.length;
-                if (!compressing) { data = compressionType.decompress(data, progressCallback); }
-                if (compressing) { data = compressionType.compress(data, progressCallback); }
-                if (compressing) { label1.setText(String.format(Locale.US, "Compression => Type: %s, Ratio: %.2f", compressionType.getName(), ((float) filesize/data.length))); }
-                Files.write(Paths.get(result_filename), data);
+                compressFile(textField1.getText(), result_filename, compressionType, compressing, new ProgressTracker(progressListener, new File(textField1.getText()).length()));
+                long filesize = new File(textField1.getText()).length();
+                long result_filesize = new File(result_filename).length();
+                if (compressing) { label1.setText(String.format(Locale.US, "Compression => Type: %s, Ratio: %.2f", compressionType.getName(), ((float) filesize/result_filesize))); }
                 JOptionPane.showMessageDialog(jFrame, "File was compressed/decompressed!");
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(jFrame, "Error reading/compressing file");
                 label1.setText("Error: " + ex.getMessage());
             }
 
-            progressBar1.setValue(100);
+            SwingUtilities.invokeLater(() -> progressBar1.setValue(100)); //After progress updates which may still be queued
             button2.setEnabled(true);
             button3.setEnabled(true);
         }).start());
@@ -143,8 +148,9 @@ public class Form {
             	button2.setEnabled(false);
             	button3.setEnabled(false);
                 byte[] data = Files.readAllBytes(Paths.get(textField1.getText()));
-                byte[] comp_data = compressionType.compress(data, progress -> progressCallback.accept(progress/2f));
-                byte[] decomp_data = compressionType.decompress(comp_data, progress -> progressCallback.accept(50f + progress/2f));
+                ProgressTracker tracker = new ProgressTracker(progressListener, data.length);
+                byte[] comp_data = compressionType.compress(data, tracker.slice(0, 0.5));
+                byte[] decomp_data = compressionType.decompress(comp_data, tracker.slice(0.5, 1));
                 label1.setText(String.format(Locale.US, "Verification => Type: %s, Ratio: %.2f, Verify: %b", compressionType.getName(), ((float) data.length/comp_data.length), Arrays.equals(data, decomp_data)));
                 JOptionPane.showMessageDialog(jFrame, "File was verified!");
             } catch (Exception ex) {
@@ -152,11 +158,22 @@ public class Form {
                 label1.setText("Error: " + ex.getMessage());
             }
 
-            progressBar1.setValue(100);
+            SwingUtilities.invokeLater(() -> progressBar1.setValue(100)); //After progress updates which may still be queued
             button2.setEnabled(true);
             button3.setEnabled(true);
         }).start());
     }
 
+    //Compressed files are written in framed format block by block, files without frame can't be decompressed, codecs changed since they were made
+    private static void compressFile(String sourceFile, String resultFile, CompressionType compressionType, boolean compressing, ProgressTracker tracker) throws IOException {
+        if (compressing) {
+            NzipFiles.compress(Paths.get(sourceFile), Paths.get(resultFile), compressionType, CompressionLevel.DEFAULT_LEVEL, tracker);
+            return;
+        }
+
+        if (!NzipFormat.isFramed(Paths.get(sourceFile))) { throw new IOException("not an nzip file: " + sourceFile); }
+        NzipFiles.decompress(Paths.get(sourceFile), Paths.get(resultFile), tracker);
+    }
+
     public static void main(String[] args) { createWindow(); }
 }
\ No newline at end of file
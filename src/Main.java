@@ -1,4 +1,12 @@
-import compression.deflate.Deflate;
+import compression.CompressionLevel;
+import compression.CompressionType;
+import compression.ProgressListener;
+import compression.ProgressTracker;
+import compression.archive.ArchiveEntry;
+import compression.archive.NzipArchiveReader;
+import compression.archive.NzipArchiveWriter;
+import compression.stream.NzipFiles;
+import compression.stream.NzipFormat;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -12,10 +20,12 @@ import java.util.Scanner;
 public class Main {
     public static String ABOUT = "000RDB000 Jānis Programmētājs";
 
+    //With arguments runs a single command and exits, see CommandLine, without them asks for commands
     public static void main(String[] args) {
+        if (args.length > 0) { System.exit(CommandLine.run(args)); }
         Scanner sc = new Scanner(System.in);
-        String sourceFile, resultFile, firstFile, secondFile;
-        System.out.println("Enter command (comp, decomp, size, equal, about, gui, exit): ");
+        String sourceFile, resultFile, firstFile, secondFile, entryName;
+        System.out.println("Enter command (comp, decomp, pack, unpack, extract, list, size, equal, about, gui, exit): ");
 
         while (true) {
             switch (sc.next()) {
@@ -33,6 +43,34 @@ public class Main {
                     resultFile = sc.next();
                     decomp(sourceFile, resultFile);
                     break;
+                case "pack":
+                    System.out.print("source directory: ");
+                    sourceFile = sc.next();
+                    System.out.print("archive name: ");
+                    resultFile = sc.next();
+                    pack(sourceFile, resultFile);
+                    break;
+                case "unpack":
+                    System.out.print("archive name: ");
+                    sourceFile = sc.next();
+                    System.out.print("target directory: ");
+                    resultFile = sc.next();
+                    unpack(sourceFile, resultFile);
+                    break;
+                case "extract":
+                    System.out.print("archive name: ");
+                    sourceFile = sc.next();
+                    System.out.print("entry name: ");
+                    entryName = sc.next();
+                    System.out.print("file name: ");
+                    resultFile = sc.next();
+                    extract(sourceFile, entryName, resultFile);
+                    break;
+                case "list":
+                    System.out.print("archive name: ");
+                    sourceFile = sc.next();
+                    list(sourceFile);
+                    break;
                 case "size":
                     System.out.print("file name: ");
                     sourceFile = sc.next();
@@ -53,22 +91,72 @@ public class Main {
     }
 
     public static void comp(String sourceFile, String resultFile) {
+        String filename = Paths.get(sourceFile).getFileName().toString();
+        ProgressListener listener = (done, total) -> System.out.printf(Locale.US, "\rCompressing %s: %.2f%%", filename, ProgressListener.percent(done, total));
+        ProgressTracker tracker = new ProgressTracker(listener, new File(sourceFile).length());
+
         try {
-            String filename = Paths.get(sourceFile).getFileName().toString();
-            byte[] data = Files.readAllBytes(Paths.get(sourceFile));
-            data = Deflate.compress(data, progress -> System.out.printf(Locale.US, "\rCompressing %s: %.2f%%%s", filename, progress, (progress == 100 ? "\n" : "")));
-            Files.write(Paths.get(resultFile), data);
+            NzipFiles.compress(Paths.get(sourceFile), Paths.get(resultFile), CompressionType.DEFLATE, CompressionLevel.DEFAULT_LEVEL, tracker);
         } catch (IOException ex) {
             System.out.println(ex.getMessage());
+            return;
         }
+
+        tracker.finish();
+        System.out.println();
     }
 
     public static void decomp(String sourceFile, String resultFile) {
+        String filename = Paths.get(sourceFile).getFileName().toString();
+        ProgressListener listener = (done, total) -> System.out.printf(Locale.US, "\rDecompressing %s: %.2f%%", filename, ProgressListener.percent(done, total));
+        ProgressTracker tracker = new ProgressTracker(listener, new File(sourceFile).length());
+
         try {
-            String filename = Paths.get(sourceFile).getFileName().toString();
-            byte[] data = Files.readAllBytes(Paths.get(sourceFile));
-            data = Deflate.decompress(data, progress -> System.out.printf(Locale.US, "\rDecompressing %s: %.2f%%%s", filename, progress, (progress == 100 ? "\n" : "")));
-            Files.write(Paths.get(resultFile), data);
+            //Only framed files can be decompressed, codecs changed since files without frame were made
+            if (!NzipFormat.isFramed(Paths.get(sourceFile))) { System.out.println("not an nzip file: " + sourceFile); return; }
+            NzipFiles.decompress(Paths.get(sourceFile), Paths.get(resultFile), tracker);
+        } catch (IOException ex) {
+            System.out.println(ex.getMessage());
+            return;
+        }
+
+        tracker.finish();
+        System.out.println();
+    }
+
+    public static void pack(String sourceDirectory, String archiveFile) {
+        try (NzipArchiveWriter writer = new NzipArchiveWriter(Paths.get(archiveFile), CompressionType.DEFLATE)) {
+            writer.addTree(Paths.get(sourceDirectory));
+            System.out.println("packed " + writer.getEntries().size() + " files");
+        } catch (IOException | IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    public static void unpack(String archiveFile, String targetDirectory) {
+        try (NzipArchiveReader reader = new NzipArchiveReader(Paths.get(archiveFile))) {
+            System.out.println("unpacked " + reader.extractAll(Paths.get(targetDirectory)).size() + " files");
+        } catch (IOException ex) {
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    //Only the requested entry is read from archive
+    public static void extract(String archiveFile, String entryName, String resultFile) {
+        try (NzipArchiveReader reader = new NzipArchiveReader(Paths.get(archiveFile))) {
+            ArchiveEntry entry = reader.getEntry(entryName);
+            if (entry == null) { System.out.println("no such entry: " + entryName); return; }
+            reader.extract(entry, Paths.get(resultFile));
+        } catch (IOException ex) {
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    public static void list(String archiveFile) {
+        try (NzipArchiveReader reader = new NzipArchiveReader(Paths.get(archiveFile))) {
+            for (ArchiveEntry entry : reader.getEntries()) {
+                System.out.printf("%12d %12d %s%n", entry.getSize(), entry.getCompressedSize(), entry.getName());
+            }
         } catch (IOException ex) {
             System.out.println(ex.getMessage());
         }
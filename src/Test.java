@@ -1,5 +1,7 @@
 import compression.BitCarry;
 import compression.CompressionType;
+import compression.ProgressListener;
+import compression.ProgressTracker;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -41,11 +43,11 @@ public class Test {
     }
 
     public static void compress(String filename, CompressionType compressionType) throws IOException {
-        byte[] rawData = Files.readAllBytes(Paths.get("files\\" + filename));
-        byte[] comp = compressionType.compress(rawData, progress -> System.out.print("\rC: " + progress));
-        //Files.write(Paths.get("files\\" + filename + ".comp"), comp);
-        byte[] decomp = compressionType.decompress(comp, progress -> System.out.print("\rD: " + progress));
-        //Files.write(Paths.get("files\\" + filename + ".decomp"), decomp);
+        byte[] rawData = Files.readAllBytes(Paths.get("files", filename));
+        byte[] comp = compressionType.compress(rawData, new ProgressTracker((done, total) -> System.out.print("\rC: " + ProgressListener.percent(done, total)), rawData.length));
+        //Files.write(Paths.get("files", filename + ".comp"), comp);
+        byte[] decomp = compressionType.decompress(comp, new ProgressTracker((done, total) -> System.out.print("\rD: " + ProgressListener.percent(done, total)), comp.length));
+        //Files.write(Paths.get("files", filename + ".decomp"), decomp);
         System.out.println("   nzip (" + filename + ") -> C: " + comp.length + " | D: " + decomp.length + " | R: " + rawData.length + " | Ratio: " + ((float) rawData.length/comp.length) + " | Verify: " + Arrays.equals(rawData, decomp));
     }
 
@@ -67,20 +69,20 @@ public class Test {
         compress("empty.txt", compressionType);
 
         /*
-        (File1.html) -> C: 24180 | D: 80479 | R: 80479 | Ratio: 3.328329 | Verify: true
-        (File2.html) -> C: 76176 | D: 344523 | R: 344523 | Ratio: 4.5227237 | Verify: true
-        (File3.html) -> C: 22013 | D: 83069 | R: 83069 | Ratio: 3.7736337 | Verify: true
-        (File4.html) -> C: 41758 | D: 206694 | R: 206694 | Ratio: 4.949806 | Verify: true
-        (test.txt) -> C: 34655 | D: 184207 | R: 184207 | Ratio: 5.315452 | Verify: true
-        (shrek.txt) -> C: 33142 | D: 70658 | R: 70658 | Ratio: 2.1319776 | Verify: true
-        (test_256.bin) -> C: 274 | D: 256 | R: 256 | Ratio: 0.93430656 | Verify: true
-        (small.txt) -> C: 54 | D: 80 | R: 80 | Ratio: 1.4814814 | Verify: true
-        (1byte.txt) -> C: 3 | D: 1 | R: 1 | Ratio: 0.33333334 | Verify: true
-        (small_test.txt) -> C: 38 | D: 64 | R: 64 | Ratio: 1.6842105 | Verify: true
-        (screenshot.png) -> C: 645098 | D: 645096 | R: 645096 | Ratio: 0.9999969 | Verify: true
-        (1234.txt) -> C: 566 | D: 200448 | R: 200448 | Ratio: 354.1484 | Verify: true
-        (blank.bin) -> C: 274 | D: 102400 | R: 102400 | Ratio: 373.72263 | Verify: true
-        (monkey.bmp) -> C: 2513345 | D: 3686550 | R: 3686550 | Ratio: 1.4667903 | Verify: true
+        (File1.html) -> C: 20482 | D: 80479 | R: 80479 | Ratio: 3.929255 | Verify: true
+        (File2.html) -> C: 65198 | D: 344523 | R: 344523 | Ratio: 5.2842574 | Verify: true
+        (File3.html) -> C: 18581 | D: 83069 | R: 83069 | Ratio: 4.470642 | Verify: true
+        (File4.html) -> C: 35229 | D: 206694 | R: 206694 | Ratio: 5.867155 | Verify: true
+        (test.txt) -> C: 28510 | D: 184207 | R: 184207 | Ratio: 6.4611363 | Verify: true
+        (shrek.txt) -> C: 27978 | D: 70658 | R: 70658 | Ratio: 2.5254843 | Verify: true
+        (test_256.bin) -> C: 257 | D: 256 | R: 256 | Ratio: 0.99610895 | Verify: true
+        (small.txt) -> C: 39 | D: 72 | R: 72 | Ratio: 1.8461539 | Verify: true
+        (1byte.txt) -> C: 2 | D: 1 | R: 1 | Ratio: 0.5 | Verify: true
+        (small_test.txt) -> C: 26 | D: 64 | R: 64 | Ratio: 2.4615386 | Verify: true
+        (screenshot.png) -> C: 645097 | D: 645096 | R: 645096 | Ratio: 0.99999845 | Verify: true
+        (1234.txt) -> C: 243 | D: 200448 | R: 200448 | Ratio: 824.8889 | Verify: true
+        (blank.bin) -> C: 123 | D: 102400 | R: 102400 | Ratio: 832.5203 | Verify: true
+        (monkey.bmp) -> C: 2328924 | D: 3686550 | R: 3686550 | Ratio: 1.5829413 | Verify: true
         (empty.txt) -> C: 0 | D: 0 | R: 0 | Ratio: NaN | Verify: true
          */
     }
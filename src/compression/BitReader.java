@@ -0,0 +1,94 @@
+package compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+//Reads bits in the same order as BitWriter writes them (most significant bit first)
+//Instead of taking one byte at a time it loads whole 64-bit words into bit buffer, so after refill
+//there are always at least 57 bits which can be peeked or consumed without touching data array again
+
+public class BitReader {
+    public static final int MAX_PEEK = 57;
+    private static final VarHandle LONG_HANDLE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private final byte[] data;
+    private final int offset;
+    private final int limit;
+    private int pos; //Position of next byte which will be loaded into bit buffer
+    private long buffer = 0; //Loaded bits, they are aligned to the left: 10100000(56)
+    private int count = 0; //How many valid bits are in buffer
+
+    public BitReader(byte[] data) { this(data, 0, data.length); }
+
+    public BitReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.limit = offset + length;
+        this.pos = offset;
+    }
+
+    //After this there are at least MAX_PEEK bits in buffer, after end of data zero bits are loaded
+    private void refill() {
+        if (pos + Long.BYTES <= limit) {
+            //Load next 8 bytes and take as many whole bytes as fit, bits after those bytes are also
+            //correct data, they will just be loaded again on next refill, so OR doesn't break them
+            buffer |= (long) LONG_HANDLE.get(data, pos) >>> count;
+            int bytes = (Long.SIZE - count) >>> 3;
+            pos += bytes;
+            count += bytes << 3;
+            return;
+        }
+
+        while (count <= 56) {
+            long value = (pos < limit) ? (data[pos] & 0xff) : 0; //Going outside of data gives zeros
+            buffer |= value << (56 - count);
+            count += 8;
+            pos++;
+        }
+    }
+
+    public long peekBits(int size) {
+        if ((size < 1) || (size > MAX_PEEK)) { throw new RuntimeException(String.format("size must be in range [1; %d]", MAX_PEEK)); }
+        if (count < size) { refill(); }
+        return buffer >>> (Long.SIZE - size);
+    }
+
+    //Only use after peekBits with same or bigger size, otherwise bits may be not loaded
+    public void skipBits(int size) {
+        buffer <<= size;
+        count -= size;
+    }
+
+    public long getBits(int size) {
+        long value = peekBits(size);
+        skipBits(size);
+        return value;
+    }
+
+    //Reads value written by BitWriter.pushVarLong
+    public long getVarLong() {
+        long value = 0;
+
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            long group = getBits(8);
+            value |= (group & 0x7f) << shift;
+            if ((group & 0x80) == 0) { return value; }
+        }
+
+        throw new RuntimeException("variable length value is too long");
+    }
+
+    public byte getByte() {
+        return (byte) getBits(8);
+    }
+
+    public void getBytes(byte[] output, int from, int size) {
+        for (int i = from; i < from + size; i++) { output[i] = (byte) getBits(8); }
+    }
+
+    //How many bits or bytes are left to read, padding bits of the last byte are also counted
+    public long availableSize(boolean bits) {
+        long available = (long) (limit - pos) * 8 + count;
+        return bits ? available : (available >> 3);
+    }
+}
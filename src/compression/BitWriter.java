@@ -0,0 +1,124 @@
+package compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+//Writes bits the same way as BitCarry does (most significant bit first), but instead of boxing every byte into
+//ArrayList<Byte> it collects bits inside 64-bit accumulator and only flushes whole words into primitive byte[]
+
+public class BitWriter {
+    private static final int MAX_SIZE = 64;
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final VarHandle LONG_HANDLE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private byte[] buffer; //Flushed bytes, grows when needed
+    private int length = 0; //How many bytes of buffer are used
+    private long accumulator = 0; //Bits that are not flushed yet, they are kept in the lowest "count" bits
+    private int count = 0; //How many bits we are holding in accumulator right now
+
+    public BitWriter() { this(DEFAULT_CAPACITY); }
+    public BitWriter(int capacity) { this.buffer = new byte[Math.max(capacity, Long.BYTES)]; }
+
+    public void pushBits(long data, int size) {
+        if ((size < 1) || (size > MAX_SIZE)) { throw new RuntimeException(String.format("size must be in range [1; %d]", MAX_SIZE)); }
+        if (size < MAX_SIZE) { data &= (1L << size) - 1; } //Drop everything above size, BitCarry also ignored those bits
+        int free = MAX_SIZE - count;
+
+        //Fast path, everything fits into accumulator
+        if (size < free) {
+            accumulator = (accumulator << size) | data;
+            count += size;
+            return;
+        }
+
+        //Fill accumulator till the end with the highest bits of data, flush it and keep remaining bits
+        //When accumulator is empty free is 64, and shifting by 64 in java does nothing, but accumulator is 0 anyway
+        int rest = size - free;
+        accumulator = (free == MAX_SIZE) ? (data >>> rest) : (accumulator << free) | (data >>> rest);
+        flushWord();
+        accumulator = (rest == 0) ? 0 : data & ((1L << rest) - 1);
+        count = rest;
+    }
+
+    //Value is split into 7 bit groups from the lowest one, every group has a bit in front of it which tells if
+    //more groups follow, so small values take 8 bits and even 64-bit value takes at most 80 bits
+    public void pushVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            pushBits(0x80 | (value & 0x7f), 8);
+            value >>>= 7;
+        }
+
+        pushBits(value, 8);
+    }
+
+    //Size in bits of value written with pushVarLong
+    public static long getVarLongSize(long value) {
+        return 8L * Math.max((Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7, 1);
+    }
+
+    public void pushByte(byte data) {
+        pushBits((data & 0xff), 8);
+    }
+
+    public void pushBytes(byte ...data) {
+        pushBytes(data, 0, data.length);
+    }
+
+    public void pushBytes(byte[] data, int offset, int size) {
+        //When we are aligned to byte we can just copy data, otherwise push it byte by byte
+        if ((count & 7) != 0) {
+            for (int i = offset; i < offset + size; i++) { pushBits((data[i] & 0xff), 8); }
+            return;
+        }
+
+        flushBytes();
+        ensureCapacity(size);
+        System.arraycopy(data, offset, buffer, length, size);
+        length += size;
+    }
+
+    public void clear() {
+        length = count = 0;
+        accumulator = 0;
+    }
+
+    //Write whole 64-bit accumulator into buffer
+    private void flushWord() {
+        ensureCapacity(Long.BYTES);
+        LONG_HANDLE.set(buffer, length, accumulator);
+        length += Long.BYTES;
+        accumulator = count = 0;
+    }
+
+    //Write all full bytes from accumulator into buffer, the rest (less than 8 bits) stays in accumulator
+    private void flushBytes() {
+        ensureCapacity(Long.BYTES);
+        while (count >= 8) { count -= 8; buffer[length++] = (byte) (accumulator >>> count); }
+        accumulator &= (1L << count) - 1;
+    }
+
+    private void ensureCapacity(int size) {
+        if (length + size <= buffer.length) { return; }
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + size));
+    }
+
+    public byte[] getBytes(boolean flush) {
+        flushBytes();
+        if (!flush || (count == 0)) { return Arrays.copyOf(buffer, length); }
+
+        //Last byte is padded with zeros from the right side
+        byte[] bytes = Arrays.copyOf(buffer, length + 1);
+        bytes[length] = (byte) (accumulator << (8 - count));
+        return bytes;
+    }
+
+    //In bytes it counts the same as BitCarry did: only bytes BitCarry would already have moved into its list, and
+    //BitCarry moves a full byte there only when the next bit comes, so 8 bits are still 0 bytes and 9 bits are 1 byte.
+    //Stored fallbacks of LZ77 encoders compare this with input size, so it has to stay the same to keep output the same.
+    //For the real size of output use (getSize(true) + 7) / 8
+    public long getSize(boolean bits) {
+        long size = (long) length * 8 + count;
+        return bits ? size : ((size == 0) ? 0 : (size - 1) >>> 3);
+    }
+}
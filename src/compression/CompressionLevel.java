@@ -0,0 +1,56 @@
+package compression;
+
+//Level decides how hard LZ77 searches for matches, low levels are fast, high levels give better ratio
+//maxChain is how many candidates are checked for one position, niceLength is match length which is good enough
+//to stop searching, lazySteps is how many next positions are checked for longer match before taking current one
+
+public class CompressionLevel {
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 9;
+    public static final int DEFAULT_LEVEL = 6;
+
+    private static final CompressionLevel[] LEVELS = new CompressionLevel[] {
+            new CompressionLevel(1, 4, 16, 0),
+            new CompressionLevel(2, 8, 32, 0),
+            new CompressionLevel(3, 32, 64, 0),
+            new CompressionLevel(4, 16, 32, 1),
+            new CompressionLevel(5, 64, 128, 1),
+            new CompressionLevel(6, 256, 258, 1),
+            new CompressionLevel(7, 1024, 258, 2),
+            new CompressionLevel(8, 4096, 258, 2),
+            new CompressionLevel(9, 1 << 16, 258, 2),
+    };
+
+    private final int level;
+    private final int maxChain;
+    private final int niceLength;
+    private final int lazySteps;
+
+    private CompressionLevel(int level, int maxChain, int niceLength, int lazySteps) {
+        this.level = level;
+        this.maxChain = maxChain;
+        this.niceLength = niceLength;
+        this.lazySteps = lazySteps;
+    }
+
+    public static CompressionLevel of(int level) {
+        if ((level < MIN_LEVEL) || (level > MAX_LEVEL)) { throw new IllegalArgumentException(String.format("level must be in range [%d; %d]", MIN_LEVEL, MAX_LEVEL)); }
+        return LEVELS[level - MIN_LEVEL];
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getMaxChain() {
+        return maxChain;
+    }
+
+    public int getNiceLength() {
+        return niceLength;
+    }
+
+    public int getLazySteps() {
+        return lazySteps;
+    }
+}
@@ -0,0 +1,96 @@
+package compression;
+
+import java.util.Locale;
+
+//What one compression or decompression did and where its time went, codecs fill it while they work
+//Counters are plain fields updated per block or from local variables at the end, and time is taken per block, not
+//per symbol, so it costs next to nothing and can be left on. Not thread safe, use add() to sum metrics of many calls
+//Phases: match = searching LZ77 matches, tree = building huffman codes and headers, encode = writing bits
+//(for decompression: decode), phases which codec doesn't have stay 0
+
+public class CompressionMetrics {
+    private long totalNanos;
+    private long matchNanos;
+    private long treeNanos;
+    private long encodeNanos;
+    private long bytesIn;
+    private long bytesOut;
+    private long literals;
+    private long matches;
+    private long matchLengthSum;
+    private long matchDistanceSum;
+    private long candidatesProbed;
+    private long huffmanBlocks;
+    private long storedBlocks; //Blocks where raw bytes were smaller than codes
+    private long skippedBlocks; //Blocks which were stored right away, because they looked incompressible
+
+    public void reset() {
+        totalNanos = matchNanos = treeNanos = encodeNanos = 0;
+        bytesIn = bytesOut = 0;
+        literals = matches = matchLengthSum = matchDistanceSum = candidatesProbed = 0;
+        huffmanBlocks = storedBlocks = skippedBlocks = 0;
+    }
+
+    public void add(CompressionMetrics other) {
+        totalNanos += other.totalNanos;
+        matchNanos += other.matchNanos;
+        treeNanos += other.treeNanos;
+        encodeNanos += other.encodeNanos;
+        bytesIn += other.bytesIn;
+        bytesOut += other.bytesOut;
+        literals += other.literals;
+        matches += other.matches;
+        matchLengthSum += other.matchLengthSum;
+        matchDistanceSum += other.matchDistanceSum;
+        candidatesProbed += other.candidatesProbed;
+        huffmanBlocks += other.huffmanBlocks;
+        storedBlocks += other.storedBlocks;
+        skippedBlocks += other.skippedBlocks;
+    }
+
+    public void addTotalNanos(long nanos) { totalNanos += nanos; }
+    public void addMatchNanos(long nanos) { matchNanos += nanos; }
+    public void addTreeNanos(long nanos) { treeNanos += nanos; }
+    public void addEncodeNanos(long nanos) { encodeNanos += nanos; }
+    public void addBytes(long in, long out) { bytesIn += in; bytesOut += out; }
+    public void addLiterals(long count) { literals += count; }
+    public void addMatches(long count, long lengthSum, long distanceSum) { matches += count; matchLengthSum += lengthSum; matchDistanceSum += distanceSum; }
+    public void addCandidatesProbed(long count) { candidatesProbed += count; }
+    public void addHuffmanBlock() { huffmanBlocks++; }
+    public void addStoredBlock() { storedBlocks++; }
+    public void addSkippedBlock() { skippedBlocks++; }
+
+    public long getTotalNanos() { return totalNanos; }
+    public long getMatchNanos() { return matchNanos; }
+    public long getTreeNanos() { return treeNanos; }
+    public long getEncodeNanos() { return encodeNanos; }
+    public long getBytesIn() { return bytesIn; }
+    public long getBytesOut() { return bytesOut; }
+    public long getLiterals() { return literals; }
+    public long getMatches() { return matches; }
+    public long getCandidatesProbed() { return candidatesProbed; }
+    public long getHuffmanBlocks() { return huffmanBlocks; }
+    public long getStoredBlocks() { return storedBlocks; }
+    public long getSkippedBlocks() { return skippedBlocks; }
+
+    public double getAverageMatchLength() {
+        return (matches == 0) ? 0 : (double) matchLengthSum / matches;
+    }
+
+    public double getAverageMatchDistance() {
+        return (matches == 0) ? 0 : (double) matchDistanceSum / matches;
+    }
+
+    //True when at least part of data ended up stored raw, either after trying or right away
+    public boolean isStoredFallback() {
+        return (storedBlocks + skippedBlocks) > 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "total %.3f ms (match %.3f, tree %.3f, encode %.3f), %d -> %d bytes, %d literals, %d matches "
+                        + "(avg length %.1f, avg distance %.1f), %d candidates probed, blocks: %d huffman, %d stored, %d skipped",
+                totalNanos / 1e6, matchNanos / 1e6, treeNanos / 1e6, encodeNanos / 1e6, bytesIn, bytesOut, literals, matches,
+                getAverageMatchLength(), getAverageMatchDistance(), candidatesProbed, huffmanBlocks, storedBlocks, skippedBlocks);
+    }
+}
@@ -2,9 +2,10 @@ package compression;
 
 import compression.deflate.Deflate;
 import compression.huffman.HuffmanEncoder;
+import compression.jfr.CompressEvent;
+import compression.jfr.DecompressEvent;
 import compression.lz77.LZ77Encoder;
 
-import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public enum CompressionType {
@@ -13,6 +14,7 @@ public enum CompressionType {
     LZSS("LZSS", ".lzss");
 
     public static final CompressionType[] COMPRESSION_TYPES = new CompressionType[] { DEFLATE, HUFFMAN, LZSS };
+    public static final int MAX_DATA_SIZE = Integer.MAX_VALUE - 8; //Codecs work on single byte[], bigger data must go trough framed format
     private final String name;
     private final String extension;
 
@@ -40,21 +42,42 @@ public enum CompressionType {
         return Stream.of(COMPRESSION_TYPES).filter(e -> e.getExtension().equalsIgnoreCase(extension)).findFirst().orElse(null);
     }
 
-    @SafeVarargs
-    public final byte[] compress(byte[] data, Consumer<Float>... callbacks) {
-        return switch (this) {
-            case DEFLATE -> Deflate.compress(data, callbacks);
-            case HUFFMAN -> HuffmanEncoder.compress(data, callbacks);
-            case LZSS -> LZ77Encoder.compress(data, callbacks);
+    public final byte[] compress(byte[] data) {
+        return compress(data, CompressionLevel.DEFAULT_LEVEL, ProgressTracker.NONE);
+    }
+
+    public final byte[] compress(byte[] data, int level) {
+        return compress(data, level, ProgressTracker.NONE);
+    }
+
+    public final byte[] compress(byte[] data, ProgressTracker tracker) {
+        return compress(data, CompressionLevel.DEFAULT_LEVEL, tracker);
+    }
+
+    //Level is used only by compression types with LZ77, huffman has nothing to tune
+    public final byte[] compress(byte[] data, int level, ProgressTracker tracker) {
+        CompressEvent event = CompressEvent.start(this, level);
+        byte[] output = switch (this) {
+            case DEFLATE -> Deflate.compress(data, level, tracker);
+            case HUFFMAN -> HuffmanEncoder.compress(data, tracker);
+            case LZSS -> LZ77Encoder.compress(data, level, tracker);
         };
+        event.finish(data.length, output.length);
+        return output;
+    }
+
+    public final byte[] decompress(byte[] data) {
+        return decompress(data, ProgressTracker.NONE);
     }
 
-    @SafeVarargs
-    public final byte[] decompress(byte[] data, Consumer<Float>... callbacks) {
-        return switch (this) {
-            case DEFLATE -> Deflate.decompress(data, callbacks);
-            case HUFFMAN -> HuffmanEncoder.decompress(data, callbacks);
-            case LZSS -> LZ77Encoder.decompress(data, callbacks);
+    public final byte[] decompress(byte[] data, ProgressTracker tracker) {
+        DecompressEvent event = DecompressEvent.start(this);
+        byte[] output = switch (this) {
+            case DEFLATE -> Deflate.decompress(data, tracker);
+            case HUFFMAN -> HuffmanEncoder.decompress(data, tracker);
+            case LZSS -> LZ77Encoder.decompress(data, tracker);
         };
+        event.finish(data.length, output.length);
+        return output;
     }
 }
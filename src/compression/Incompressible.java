@@ -0,0 +1,77 @@
+package compression;
+
+import java.util.Arrays;
+
+//Fast guess if data is already compressed (JPEG, PNG, zip...), so that codecs can store it raw without searching matches
+//Every segment is checked on a few small samples: byte entropy tells if huffman could save anything and match density
+//tells if LZ77 could, data is incompressible only when both of them say no. Samples share one hash table, so matches
+//between samples of the same segment are counted too, matches further than segment are not seen, which is fine,
+//because codec falls back to stored data anyway when it doesn't help
+
+public class Incompressible {
+    private static final int SEGMENT_SIZE = 1 << 16; //Same as deflate block, every segment is judged separately
+    private static final int SAMPLE_SIZE = 1 << 10;
+    private static final int SAMPLES = 4; //4 KB per segment, about 6% of data is looked at
+    private static final int MIN_SIZE = 1 << 12; //Smaller data is compressed fully, guessing doesn't pay off there
+    private static final int MATCH_LENGTH = 4;
+    private static final int HASH_BITS = 12;
+    private static final double MIN_ENTROPY = 7.8; //Bits per byte, random sample of 4 KB gives about 7.95
+    private static final double MAX_MATCH_DENSITY = 1.0 / 64; //Share of positions which start 4 byte match
+
+    //Returns true only if every segment in range looks incompressible
+    public static boolean check(byte[] data, int from, int to) {
+        if (to - from < MIN_SIZE) { return false; }
+        int[] histogram = new int[256];
+        int[] table = new int[1 << HASH_BITS];
+
+        //Short tail is joined to the last segment, so that it is not judged on a too small sample
+        for (int segment = from, end; segment < to; segment = end) {
+            end = (to - segment < 2 * SEGMENT_SIZE) ? to : segment + SEGMENT_SIZE;
+            if (!checkSegment(data, segment, end, histogram, table)) { return false; }
+        }
+
+        return true;
+    }
+
+    private static boolean checkSegment(byte[] data, int from, int to, int[] histogram, int[] table) {
+        Arrays.fill(histogram, 0);
+        Arrays.fill(table, -1);
+        int samples = Math.max(1, Math.min(SAMPLES, (to - from) / SAMPLE_SIZE));
+        int step = (to - from) / samples; //Samples are spread evenly over segment
+        int count = 0;
+        int matches = 0;
+
+        for (int sample = 0; sample < samples; sample++) {
+            int start = from + sample * step;
+            int end = Math.min(start + SAMPLE_SIZE, to);
+
+            for (int i = start; i < end; i++) {
+                histogram[data[i] & 0xff]++;
+                if (i + MATCH_LENGTH > to) { continue; }
+
+                int key = (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8) | ((data[i + 2] & 0xff) << 16) | (data[i + 3] << 24);
+                int hash = (key * 0x9E3779B1) >>> (Integer.SIZE - HASH_BITS);
+                int candidate = table[hash];
+                if ((candidate >= 0) && (data[candidate] == data[i]) && (data[candidate + 1] == data[i + 1]) && (data[candidate + 2] == data[i + 2]) && (data[candidate + 3] == data[i + 3])) { matches++; }
+                table[hash] = i;
+            }
+
+            count += end - start;
+        }
+
+        return (matches < count * MAX_MATCH_DENSITY) && (entropy(histogram, count) >= MIN_ENTROPY);
+    }
+
+    //Shannon entropy in bits per byte
+    private static double entropy(int[] histogram, int count) {
+        double entropy = 0;
+
+        for (int frequency : histogram) {
+            if (frequency == 0) { continue; }
+            double p = (double) frequency / count;
+            entropy -= p * Math.log(p);
+        }
+
+        return entropy / Math.log(2);
+    }
+}
@@ -0,0 +1,236 @@
+package compression;
+
+import compression.deflate.DeflateDictionary;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+//Compresses or decompresses many independent small inputs on a pool, every pool thread uses its own pooled
+//NzipCompressor/NzipDecompressor, so callers don't manage threads or contexts. Pool size bounds how many inputs
+//are worked on at once, by default it is common pool which has as many threads as there are cores
+//Results are always given in the same order as inputs came
+
+public class NzipBatch {
+    private static final int MAX_IN_FLIGHT_PER_THREAD = 4; //Publisher inputs which are requested ahead per pool thread
+    private final CompressionType compressionType;
+    private final int level;
+    private final DeflateDictionary dictionary;
+    private final ForkJoinPool pool;
+
+    public NzipBatch(CompressionType compressionType) {
+        this(compressionType, CompressionLevel.DEFAULT_LEVEL, null, ForkJoinPool.commonPool());
+    }
+
+    public NzipBatch(CompressionType compressionType, int level) {
+        this(compressionType, level, null, ForkJoinPool.commonPool());
+    }
+
+    //Dictionary is used only with deflate, null for none
+    public NzipBatch(CompressionType compressionType, int level, DeflateDictionary dictionary, ForkJoinPool pool) {
+        if ((dictionary != null) && (compressionType != CompressionType.DEFLATE)) { throw new IllegalArgumentException("dictionary can be used only with " + CompressionType.DEFLATE); }
+        this.compressionType = compressionType;
+        this.level = CompressionLevel.of(level).getLevel();
+        this.dictionary = dictionary;
+        this.pool = pool;
+    }
+
+    public CompletableFuture<byte[]> compress(byte[] data) {
+        return CompletableFuture.supplyAsync(() -> {
+            NzipCompressor compressor = NzipCompressor.forThread(compressionType);
+            compressor.setLevel(level);
+            compressor.setDictionary(dictionary);
+            return compressor.compress(data);
+        }, pool);
+    }
+
+    public CompletableFuture<byte[]> decompress(byte[] data) {
+        return CompletableFuture.supplyAsync(() -> {
+            NzipDecompressor decompressor = NzipDecompressor.forThread(compressionType);
+            decompressor.setDictionary(dictionary);
+            return decompressor.decompress(data);
+        }, pool);
+    }
+
+    //All inputs are submitted at once, futures are in the same order as inputs
+    public List<CompletableFuture<byte[]>> compressAll(Collection<byte[]> inputs) {
+        return submitAll(inputs, this::compress);
+    }
+
+    public List<CompletableFuture<byte[]>> decompressAll(Collection<byte[]> inputs) {
+        return submitAll(inputs, this::decompress);
+    }
+
+    //Waits for all results, first failed input throws its exception (RuntimeException from codec)
+    public static List<byte[]> join(List<CompletableFuture<byte[]>> futures) {
+        List<byte[]> results = new ArrayList<>(futures.size());
+
+        try {
+            for (CompletableFuture<byte[]> future : futures) { results.add(future.join()); }
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) { throw (RuntimeException) ex.getCause(); }
+            throw ex;
+        }
+
+        return results;
+    }
+
+    private static List<CompletableFuture<byte[]>> submitAll(Collection<byte[]> inputs, Function<byte[], CompletableFuture<byte[]>> task) {
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(inputs.size());
+        for (byte[] input : inputs) { futures.add(task.apply(input)); }
+        return futures;
+    }
+
+    //Results are published in input order, inputs are requested only as far as result subscriber asked for results and
+    //at most a limited number ahead, so fast publisher doesn't fill memory, and slow result subscriber holds back source
+    //Source is subscribed only when someone subscribes to results, every result subscriber gets its own pass
+    //Results are given on the thread which finished them or which requested them, never under a lock and never more
+    //than one at a time, so slow subscriber takes at most one pool thread while others keep compressing
+    public Flow.Publisher<byte[]> compress(Flow.Publisher<byte[]> source) {
+        return process(source, this::compress);
+    }
+
+    public Flow.Publisher<byte[]> decompress(Flow.Publisher<byte[]> source) {
+        return process(source, this::decompress);
+    }
+
+    private Flow.Publisher<byte[]> process(Flow.Publisher<byte[]> source, Function<byte[], CompletableFuture<byte[]>> task) {
+        return subscriber -> source.subscribe(new OrderedSubscriber(subscriber, task, pool.getParallelism() * MAX_IN_FLIGHT_PER_THREAD));
+    }
+
+    //Subscriber of source and subscription of result subscriber at once
+    private static class OrderedSubscriber implements Flow.Subscriber<byte[]>, Flow.Subscription {
+        private final Flow.Subscriber<? super byte[]> results;
+        private final Function<byte[], CompletableFuture<byte[]>> task;
+        private final int maxInFlight;
+        private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>(); //In input order
+        private final AtomicInteger drains = new AtomicInteger(); //Calls of drain() which are not handled yet
+        private Flow.Subscription subscription;
+        private long demand = 0; //Results which were requested and not given yet
+        private long requested = 0; //Inputs which were requested from source and didn't come yet
+        private boolean completed = false;
+        private boolean done = false; //Result subscriber got onComplete or onError, or cancelled
+        private Throwable error;
+
+        private OrderedSubscriber(Flow.Subscriber<? super byte[]> results, Function<byte[], CompletableFuture<byte[]>> task, int maxInFlight) {
+            this.results = results;
+            this.task = task;
+            this.maxInFlight = maxInFlight;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            results.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(byte[] item) {
+            CompletableFuture<byte[]> future = task.apply(item);
+
+            synchronized (this) {
+                requested--;
+                pending.add(future);
+            }
+
+            future.whenComplete((result, ex) -> drain());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            synchronized (this) {
+                error = throwable;
+                completed = true;
+            }
+
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) { completed = true; }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n > 0) {
+                    demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                } else {
+                    error = new IllegalArgumentException("request must be positive: " + n);
+                    completed = true;
+                    pending.clear();
+                }
+            }
+
+            if (n <= 0) { subscription.cancel(); }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                done = true;
+                pending.clear();
+            }
+
+            subscription.cancel();
+        }
+
+        //Only one thread runs the loop, others just tell it to go around once more, nothing is called under lock
+        //Every finished result from the front is given while there is demand, later ones wait until all before them are done
+        private void drain() {
+            if (drains.getAndIncrement() != 0) { return; }
+
+            for (int missed = 1; missed != 0; missed = drains.addAndGet(-missed)) {
+                while (true) {
+                    CompletableFuture<byte[]> future = null;
+                    boolean terminate = false;
+                    long request = 0;
+
+                    synchronized (this) {
+                        if (done) { return; }
+                        CompletableFuture<byte[]> head = pending.peek();
+
+                        if ((head != null) && head.isDone() && ((demand > 0) || head.isCompletedExceptionally())) {
+                            future = pending.poll();
+                            if (future.isCompletedExceptionally()) { done = true; } else { demand--; }
+                        } else if (completed && pending.isEmpty()) {
+                            done = terminate = true;
+                        } else if (!completed) {
+                            request = Math.min(maxInFlight, demand) - pending.size() - requested;
+                            if (request > 0) { requested += request; }
+                        }
+                    }
+
+                    if (future != null) {
+                        if (future.isCompletedExceptionally()) {
+                            subscription.cancel();
+                            results.onError(future.handle((result, ex) -> (ex instanceof CompletionException) ? ex.getCause() : ex).join());
+                            return;
+                        }
+
+                        results.onNext(future.join());
+                        continue;
+                    }
+
+                    if (terminate) {
+                        if (error != null) { results.onError(error); } else { results.onComplete(); }
+                        return;
+                    }
+
+                    if (request > 0) { subscription.request(request); }
+                    break;
+                }
+            }
+        }
+    }
+}
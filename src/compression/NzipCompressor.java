@@ -0,0 +1,95 @@
+package compression;
+
+import compression.deflate.Deflate;
+import compression.deflate.DeflateDictionary;
+import compression.huffman.HuffmanEncoder;
+import compression.jfr.CompressEvent;
+import compression.lz77.LZ77Encoder;
+import compression.lz77.versions.LZ77EncoderV2;
+
+//Reusable compressor, same idea as java.util.zip.Deflater: it owns match finder tables and output buffer, so compressing
+//many small inputs one after another doesn't allocate them again for every call. Output is the same as from
+//CompressionType.compress. Instance is not thread safe, forThread() gives one instance per thread and type
+//Tables grow to the biggest input compressed so far and stay, so pooled instances should be used for similar inputs
+//getMetrics() tells what the last call did, it is always collected, because it costs only a few counters per block
+
+public class NzipCompressor {
+    private static final ThreadLocal<NzipCompressor[]> POOL = ThreadLocal.withInitial(() -> new NzipCompressor[CompressionType.values().length]);
+    private final CompressionType compressionType;
+    private final Deflate.Context deflateContext;
+    private final LZ77EncoderV2.Context lz77Context;
+    private final CompressionMetrics metrics;
+    private int level = CompressionLevel.DEFAULT_LEVEL;
+    private DeflateDictionary dictionary;
+
+    public NzipCompressor(CompressionType compressionType) {
+        this(compressionType, CompressionLevel.DEFAULT_LEVEL);
+    }
+
+    public NzipCompressor(CompressionType compressionType, int level) {
+        this.compressionType = compressionType;
+        this.deflateContext = (compressionType == CompressionType.DEFLATE) ? new Deflate.Context() : null;
+        this.lz77Context = (compressionType == CompressionType.LZSS) ? new LZ77EncoderV2.Context() : null;
+        this.metrics = switch (compressionType) {
+            case DEFLATE -> deflateContext.getMetrics();
+            case HUFFMAN -> new CompressionMetrics();
+            case LZSS -> lz77Context.getMetrics();
+        };
+        setLevel(level);
+    }
+
+    //Compressor of this thread with default level and without dictionary, tables from earlier calls are kept
+    public static NzipCompressor forThread(CompressionType compressionType) {
+        NzipCompressor[] compressors = POOL.get();
+        NzipCompressor compressor = compressors[compressionType.ordinal()];
+        if (compressor == null) { compressor = compressors[compressionType.ordinal()] = new NzipCompressor(compressionType); }
+        compressor.reset();
+        compressor.level = CompressionLevel.DEFAULT_LEVEL;
+        compressor.dictionary = null;
+        return compressor;
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    public void setLevel(int level) {
+        this.level = CompressionLevel.of(level).getLevel();
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    //Only deflate can use dictionary, null removes it
+    public void setDictionary(DeflateDictionary dictionary) {
+        if ((dictionary != null) && (compressionType != CompressionType.DEFLATE)) { throw new IllegalStateException("dictionary can be used only with " + CompressionType.DEFLATE); }
+        this.dictionary = dictionary;
+    }
+
+    public byte[] compress(byte[] data) {
+        return compress(data, ProgressTracker.NONE);
+    }
+
+    public byte[] compress(byte[] data, ProgressTracker tracker) {
+        CompressEvent event = CompressEvent.start(compressionType, level);
+        byte[] output = switch (compressionType) {
+            case DEFLATE -> Deflate.compress(data, level, tracker, dictionary, deflateContext);
+            case HUFFMAN -> HuffmanEncoder.compress(data, tracker, metrics);
+            case LZSS -> LZ77Encoder.compress(data, level, tracker, lz77Context);
+        };
+        event.finish(data.length, output.length);
+        return output;
+    }
+
+    //Metrics of the last compress() call, the same object is filled again by the next one
+    public CompressionMetrics getMetrics() {
+        return metrics;
+    }
+
+    //Forgets last input, codecs also do it after every call, tables and buffers are kept
+    public void reset() {
+        if (deflateContext != null) { deflateContext.reset(); }
+        if (lz77Context != null) { lz77Context.reset(); }
+    }
+}
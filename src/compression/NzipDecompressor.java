@@ -0,0 +1,73 @@
+package compression;
+
+import compression.deflate.Deflate;
+import compression.deflate.DeflateDictionary;
+import compression.huffman.HuffmanEncoder;
+import compression.jfr.DecompressEvent;
+import compression.lz77.LZ77Encoder;
+
+//Decompression counterpart of NzipCompressor, decoders already write straight into output of exact size, so the only
+//state worth keeping is dictionary with its prebuilt decode tables. Instance is not thread safe, see forThread()
+//Only deflate fills all metrics, other types give time and sizes
+
+public class NzipDecompressor {
+    private static final ThreadLocal<NzipDecompressor[]> POOL = ThreadLocal.withInitial(() -> new NzipDecompressor[CompressionType.values().length]);
+    private final CompressionType compressionType;
+    private DeflateDictionary dictionary;
+    private final CompressionMetrics metrics = new CompressionMetrics();
+
+    public NzipDecompressor(CompressionType compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    //Decompressor of this thread without dictionary
+    public static NzipDecompressor forThread(CompressionType compressionType) {
+        NzipDecompressor[] decompressors = POOL.get();
+        NzipDecompressor decompressor = decompressors[compressionType.ordinal()];
+        if (decompressor == null) { decompressor = decompressors[compressionType.ordinal()] = new NzipDecompressor(compressionType); }
+        decompressor.reset();
+        decompressor.dictionary = null;
+        return decompressor;
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    //Must be the same dictionary which data was compressed with
+    public void setDictionary(DeflateDictionary dictionary) {
+        if ((dictionary != null) && (compressionType != CompressionType.DEFLATE)) { throw new IllegalStateException("dictionary can be used only with " + CompressionType.DEFLATE); }
+        this.dictionary = dictionary;
+    }
+
+    public byte[] decompress(byte[] data) {
+        return decompress(data, ProgressTracker.NONE);
+    }
+
+    public byte[] decompress(byte[] data, ProgressTracker tracker) {
+        DecompressEvent event = DecompressEvent.start(compressionType);
+        byte[] output;
+
+        if (compressionType == CompressionType.DEFLATE) {
+            output = Deflate.decompress(data, tracker, dictionary, metrics);
+        } else {
+            long started = System.nanoTime();
+            metrics.reset();
+            output = (compressionType == CompressionType.HUFFMAN) ? HuffmanEncoder.decompress(data, tracker) : LZ77Encoder.decompress(data, tracker);
+            metrics.addTotalNanos(System.nanoTime() - started);
+            metrics.addBytes(data.length, output.length);
+        }
+
+        event.finish(data.length, output.length);
+        return output;
+    }
+
+    //Metrics of the last decompress() call, the same object is filled again by the next one
+    public CompressionMetrics getMetrics() {
+        return metrics;
+    }
+
+    //Nothing of the last input is kept, so there is nothing to forget, it is here to match NzipCompressor
+    public void reset() {
+    }
+}
@@ -0,0 +1,13 @@
+package compression;
+
+//Receives how many units (usually bytes) of work are done out of total, calls come through ProgressTracker
+//so they are already throttled and listener doesn't need to skip anything itself
+
+@FunctionalInterface
+public interface ProgressListener {
+    void onProgress(long done, long total);
+
+    static float percent(long done, long total) {
+        return (total > 0) ? Math.min((float) done/total*100, 100f) : 100f;
+    }
+}
@@ -0,0 +1,83 @@
+package compression;
+
+//Hot loops call update() for every byte or symbol, so it must cost almost nothing. Tracker only looks at the clock
+//once every "step" units, and listener is called only when "interval" has passed since the last report
+//Without listener next checkpoint is Long.MAX_VALUE, so update() is just one comparison which never passes
+//Work made of several phases uses slices, each slice maps its own done/total to part of the whole range
+//Tracker is not thread safe, it should be updated only by the thread which is doing the work
+
+public class ProgressTracker {
+    public static final int DEFAULT_STEP = 1 << 16; //64 KB between clock checks
+    public static final long DEFAULT_INTERVAL = 50_000_000L; //50 ms between reports, in nanoseconds
+    public static final ProgressTracker NONE = new ProgressTracker(null, 0);
+
+    private final ProgressTracker root;
+    private final ProgressListener listener;
+    private final long from; //Range of root total which is covered by this tracker
+    private final long width;
+    private final int step;
+    private final long interval;
+    private long next; //Next done value which makes checkpoint
+    private long lastReport; //Used only in root, all slices report through it
+    private long lastDone = -1; //Same value is never reported twice in a row, for example finish() after last update()
+
+    public ProgressTracker(ProgressListener listener, long total) { this(listener, total, DEFAULT_STEP, DEFAULT_INTERVAL); }
+
+    public ProgressTracker(ProgressListener listener, long total, int step, long interval) {
+        this.root = this;
+        this.listener = listener;
+        this.from = 0;
+        this.width = Math.max(total, 0);
+        this.step = Math.max(step, 1);
+        this.interval = interval;
+        this.next = (listener == null) ? Long.MAX_VALUE : 0;
+        this.lastReport = System.nanoTime() - interval; //First checkpoint is reported right away
+    }
+
+    private ProgressTracker(ProgressTracker root, long from, long width) {
+        this.root = root;
+        this.listener = root.listener;
+        this.from = from;
+        this.width = width;
+        this.step = root.step;
+        this.interval = root.interval;
+        this.next = 0;
+    }
+
+    public static ProgressTracker of(ProgressListener listener, long total) {
+        return (listener == null) ? NONE : new ProgressTracker(listener, total);
+    }
+
+    public boolean isEnabled() {
+        return listener != null;
+    }
+
+    //Part of this tracker between fractions "from" and "to", for example slice(0, 0.5) is the first half
+    public ProgressTracker slice(double from, double to) {
+        if (listener == null) { return this; }
+        long start = this.from + (long) (width * from);
+        return new ProgressTracker(root, start, Math.max(this.from + (long) (width * to) - start, 0));
+    }
+
+    //"done" units out of "total" units of this tracker (or slice) are processed
+    public void update(long done, long total) {
+        if (done < next) { return; }
+        next = done + step;
+        root.report(from + ((total > 0) ? (long) ((double) Math.min(done, total) / total * width) : width), false);
+    }
+
+    //End of this tracker (or slice) is always reported, no matter how long ago last report was
+    public void finish() {
+        if (listener == null) { return; }
+        next = Long.MAX_VALUE;
+        root.report(from + width, true);
+    }
+
+    private void report(long done, boolean force) {
+        long now = System.nanoTime();
+        if ((done == lastDone) || (!force && (now - lastReport < interval))) { return; }
+        lastReport = now;
+        lastDone = done;
+        listener.onProgress(done, width);
+    }
+}
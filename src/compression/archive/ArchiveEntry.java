@@ -0,0 +1,66 @@
+package compression.archive;
+
+import compression.CompressionType;
+
+//One file in archive, offset and compressed size point to its framed nzip stream, or to a single compressed block
+//when the file was smaller than a block, crc is CRC32C of original data
+
+public class ArchiveEntry {
+    private final String name;
+    private final long offset;
+    private final long compressedSize;
+    private final long size;
+    private final int crc;
+    private final long lastModified;
+    private final CompressionType compressionType;
+    private final boolean framed;
+
+    public ArchiveEntry(String name, long offset, long compressedSize, long size, int crc, long lastModified, CompressionType compressionType, boolean framed) {
+        this.name = name;
+        this.offset = offset;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.crc = crc;
+        this.lastModified = lastModified;
+        this.compressionType = compressionType;
+        this.framed = framed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getCrc() {
+        return crc;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    //False when entry is one block of its compression type without any frame
+    public boolean isFramed() {
+        return framed;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
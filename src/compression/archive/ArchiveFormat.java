@@ -0,0 +1,94 @@
+package compression.archive;
+
+import compression.CompressionType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//Archive with many files, every entry is compressed separately, so any entry can be read alone
+//Header:    [magic: 4 bytes "NZAR"] [version: 1 byte]
+//Entries:   [framed nzip stream or single compressed block] [framed nzip stream or single compressed block] ...
+//Directory: for every entry [name length: 2 bytes] [name: UTF-8] [method: 1 byte] [offset: 8 bytes]
+//           [compressed size: 8 bytes] [size: 8 bytes] [crc32c: 4 bytes] [last modified: 8 bytes]
+//Trailer:   [directory offset: 8 bytes] [entry count: 4 bytes] [magic: 4 bytes "NZCD"]
+//Names always use '/' as separator and are relative to the directory which was packed
+//Method is compression type with the highest bit set for framed streams. Files smaller than a block are written as one
+//block of compression type, frame would cost more than the data, and they are checked by crc from directory
+
+public class ArchiveFormat {
+    public static final byte[] MAGIC = new byte[] { 'N', 'Z', 'A', 'R' };
+    public static final byte[] DIRECTORY_MAGIC = new byte[] { 'N', 'Z', 'C', 'D' };
+    public static final int VERSION = 2; //2: single block entries
+    public static final String EXTENSION = ".nzar";
+    public static final int HEADER_SIZE = MAGIC.length + 1;
+    public static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES + DIRECTORY_MAGIC.length;
+    public static final int MAX_NAME_LENGTH = 0xffff; //In bytes, length is written as unsigned short
+    private static final int FRAMED = 0x80;
+
+    public static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    public static void readHeader(ByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) { throw new IOException("Not an nzip archive"); }
+
+        int version = buffer.get() & 0xff;
+        if (version != VERSION) { throw new IOException("Unsupported archive version: " + version); }
+    }
+
+    public static void writeEntry(DataOutputStream out, ArchiveEntry entry) throws IOException {
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeByte(entry.getCompressionType().ordinal() | (entry.isFramed() ? FRAMED : 0));
+        out.writeLong(entry.getOffset());
+        out.writeLong(entry.getCompressedSize());
+        out.writeLong(entry.getSize());
+        out.writeInt(entry.getCrc());
+        out.writeLong(entry.getLastModified());
+    }
+
+    public static ArchiveEntry readEntry(DataInputStream in, long directoryOffset) throws IOException {
+        byte[] name = new byte[in.readUnsignedShort()];
+        in.readFully(name);
+        int method = in.readUnsignedByte();
+        long offset = in.readLong();
+        long compressedSize = in.readLong();
+        long size = in.readLong();
+        int crc = in.readInt();
+        long lastModified = in.readLong();
+
+        //Entry must be somewhere between header and directory
+        if ((offset < HEADER_SIZE) || (compressedSize < 0) || (offset + compressedSize > directoryOffset) || (size < 0) || ((method & ~FRAMED) >= CompressionType.values().length)) {
+            throw new IOException("Invalid archive entry: " + new String(name, StandardCharsets.UTF_8));
+        }
+
+        CompressionType compressionType = CompressionType.values()[method & ~FRAMED];
+        return new ArchiveEntry(new String(name, StandardCharsets.UTF_8), offset, compressedSize, size, crc, lastModified, compressionType, (method & FRAMED) != 0);
+    }
+
+    public static void writeTrailer(DataOutputStream out, long directoryOffset, int count) throws IOException {
+        out.writeLong(directoryOffset);
+        out.writeInt(count);
+        out.write(DIRECTORY_MAGIC);
+    }
+
+    //Checks that name can be written and later extracted without going outside of target directory
+    public static String checkName(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.contains("\\") || name.contains("\0")) { throw new IllegalArgumentException("Invalid entry name: " + name); }
+        if (name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_LENGTH) { throw new IllegalArgumentException("Entry name is too long: " + name); }
+
+        for (String part : name.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) { throw new IllegalArgumentException("Invalid entry name: " + name); }
+        }
+
+        return name;
+    }
+}
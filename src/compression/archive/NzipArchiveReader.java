@@ -0,0 +1,217 @@
+package compression.archive;
+
+import compression.NzipDecompressor;
+import compression.stream.BlockIndex;
+import compression.stream.NzipInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+//Reads only header and central directory when opened, entry data is read with positional reads on demand,
+//so extracting one entry doesn't touch the others and many entries can be read at once from different threads
+
+public class NzipArchiveReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final FileChannel channel;
+    private final Map<String, ArchiveEntry> entries = new LinkedHashMap<>();
+
+    public NzipArchiveReader(Path source) throws IOException {
+        this.channel = FileChannel.open(source, StandardOpenOption.READ);
+
+        try {
+            readDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readDirectory() throws IOException {
+        long size = channel.size();
+        if (size < ArchiveFormat.HEADER_SIZE + ArchiveFormat.TRAILER_SIZE) { throw new IOException("Not an nzip archive"); }
+        ArchiveFormat.readHeader(BlockIndex.readFully(channel, 0, ArchiveFormat.HEADER_SIZE));
+
+        ByteBuffer trailer = BlockIndex.readFully(channel, size - ArchiveFormat.TRAILER_SIZE, ArchiveFormat.TRAILER_SIZE);
+        long directoryOffset = trailer.getLong();
+        int count = trailer.getInt();
+        byte[] magic = new byte[ArchiveFormat.DIRECTORY_MAGIC.length];
+        trailer.get(magic);
+
+        long directorySize = size - ArchiveFormat.TRAILER_SIZE - directoryOffset;
+        if (!Arrays.equals(magic, ArchiveFormat.DIRECTORY_MAGIC) || (directoryOffset < ArchiveFormat.HEADER_SIZE) || (directorySize < 0) || (directorySize > Integer.MAX_VALUE) || (count < 0)) {
+            throw new IOException("Corrupted archive directory");
+        }
+
+        ByteBuffer buffer = BlockIndex.readFully(channel, directoryOffset, (int) directorySize);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.limit()));
+        for (int i = 0; i < count; i++) {
+            ArchiveEntry entry = ArchiveFormat.readEntry(in, directoryOffset);
+            if (entries.put(entry.getName(), entry) != null) { throw new IOException("Duplicate entry: " + entry.getName()); }
+        }
+    }
+
+    public Collection<ArchiveEntry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    //Returns null if there is no such entry
+    public ArchiveEntry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    //Stream checks size and checksum when it reaches the end and throws IOException if they don't match
+    //Single block entries are smaller than a block, so they are read and decompressed whole right away
+    public InputStream open(ArchiveEntry entry) throws IOException {
+        if (!entry.isFramed()) {
+            if (entry.getCompressedSize() > Integer.MAX_VALUE) { throw new IOException("Invalid archive entry: " + entry.getName()); }
+            ByteBuffer block = BlockIndex.readFully(channel, entry.getOffset(), (int) entry.getCompressedSize());
+
+            try {
+                byte[] data = NzipDecompressor.forThread(entry.getCompressionType()).decompress(block.array());
+                return new VerifyingInputStream(new ByteArrayInputStream(data), entry);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupted entry: " + entry.getName() + ": " + e.getMessage(), e);
+            }
+        }
+
+        InputStream range = new BufferedInputStream(new RangeInputStream(channel, entry.getOffset(), entry.getCompressedSize()), BUFFER_SIZE);
+        return new VerifyingInputStream(new NzipInputStream(range), entry);
+    }
+
+    public byte[] read(ArchiveEntry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE - 8) { throw new IOException("Entry is too big to be read into memory: " + entry.getName()); }
+        try (InputStream in = open(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    public void extract(ArchiveEntry entry, Path target) throws IOException {
+        if (target.getParent() != null) { Files.createDirectories(target.getParent()); }
+
+        try (InputStream in = open(entry); OutputStream out = Files.newOutputStream(target)) {
+            in.transferTo(out);
+        }
+
+        Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getLastModified()));
+    }
+
+    //Returns paths of extracted files, names which would end up outside of directory are rejected
+    public ArrayList<Path> extractAll(Path directory) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        ArrayList<Path> extracted = new ArrayList<>();
+
+        for (ArchiveEntry entry : entries.values()) {
+            Path target = root.resolve(entry.getName()).normalize();
+            if (!target.startsWith(root) || target.equals(root)) { throw new IOException("Entry is outside of target directory: " + entry.getName()); }
+            extract(entry, target);
+            extracted.add(target);
+        }
+
+        return extracted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    //Reads part of file with positional reads, so it doesn't move channel position shared by other streams
+    private static class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+        private final byte[] single = new byte[1]; //For read() of one byte
+
+        private RangeInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if ((off < 0) || (len < 0) || (len > b.length - off)) { throw new IndexOutOfBoundsException(); }
+            if (len == 0) { return 0; }
+            if (position >= end) { return -1; }
+
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (read < 0) { throw new IOException("Unexpected end of archive"); }
+            position += read;
+            return read;
+        }
+    }
+
+    private static class VerifyingInputStream extends FilterInputStream {
+        private final ArchiveEntry entry;
+        private final CRC32C crc = new CRC32C();
+        private final byte[] single = new byte[1]; //For read() of one byte
+        private long size = 0;
+        private boolean verified = false;
+
+        private VerifyingInputStream(InputStream in, ArchiveEntry entry) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+
+            if (read > 0) {
+                crc.update(b, off, read);
+                size += read;
+                if (size > entry.getSize()) { throw new IOException("Entry is bigger than expected: " + entry.getName()); }
+            } else if ((read == -1) && !verified) {
+                if (size != entry.getSize()) { throw new IOException("Entry is truncated: " + entry.getName()); }
+                if ((int) crc.getValue() != entry.getCrc()) { throw new IOException("Checksum mismatch: " + entry.getName()); }
+                verified = true;
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            //Skipped bytes must still go trough checksum
+            byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), BUFFER_SIZE)];
+            long skipped = 0;
+
+            for (int read; (skipped < n) && ((read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0); ) { skipped += read; }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package compression.archive;
+
+import compression.CompressionLevel;
+import compression.CompressionType;
+import compression.NzipCompressor;
+import compression.stream.NzipFormat;
+import compression.stream.NzipOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+
+//Writes entries one after another and the central directory on close, see ArchiveFormat
+//Files of at least one block get their own framed stream, smaller ones are compressed whole into a single block with one
+//compressor for the whole archive, so many small files pay neither for frames nor for pool tasks and new tables
+//Offsets are taken from bytes which really went out, so an entry which failed half way only leaves unused bytes behind,
+//but when writing to archive itself fails, nothing more can be written and close() only closes the file
+
+public class NzipArchiveWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private final CompressionType compressionType;
+    private final NzipCompressor compressor;
+    private final int level;
+    private final List<ArchiveEntry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private boolean closed = false;
+
+    public NzipArchiveWriter(Path target, CompressionType compressionType) throws IOException {
+        this(target, compressionType, CompressionLevel.DEFAULT_LEVEL);
+    }
+
+    public NzipArchiveWriter(Path target, CompressionType compressionType, int level) throws IOException {
+        this.counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(target), BUFFER_SIZE));
+        this.out = new DataOutputStream(counter);
+        this.compressionType = compressionType;
+        this.level = CompressionLevel.of(level).getLevel();
+        this.compressor = new NzipCompressor(compressionType, this.level);
+        ArchiveFormat.writeHeader(out);
+    }
+
+    public ArchiveEntry add(Path file, String name) throws IOException {
+        if (closed) { throw new IOException("Archive is already closed"); }
+        if (counter.failed) { throw new IOException("Archive can't be written anymore, earlier write failed"); }
+        ArchiveFormat.checkName(name);
+        if (!names.add(name)) { throw new IOException("Duplicate entry: " + name); }
+
+        try {
+            ArchiveEntry entry = (Files.size(file) < NzipFormat.DEFAULT_BLOCK_SIZE) ? addBlock(file, name) : addFramed(file, name);
+            entries.add(entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            names.remove(name); //Entry is not in directory, so the same name can be added again
+            throw e;
+        }
+    }
+
+    private ArchiveEntry addBlock(Path file, String name) throws IOException {
+        long offset = counter.count;
+        byte[] data = Files.readAllBytes(file);
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        out.write(compressor.compress(data));
+        return new ArchiveEntry(name, offset, counter.count - offset, data.length, (int) crc.getValue(), Files.getLastModifiedTime(file).toMillis(), compressionType, false);
+    }
+
+    private ArchiveEntry addFramed(Path file, String name) throws IOException {
+        long offset = counter.count;
+        NzipOutputStream nzipOut = new NzipOutputStream(new ShieldOutputStream(out), compressionType);
+        nzipOut.setLevel(level);
+        CRC32C crc = new CRC32C();
+        long read = 0;
+
+        try (InputStream in = new CheckedInputStream(Files.newInputStream(file), crc)) {
+            for (int length; (length = in.read(buffer)) != -1; read += length) { nzipOut.write(buffer, 0, length); }
+        }
+
+        nzipOut.finish();
+        return new ArchiveEntry(name, offset, counter.count - offset, read, (int) crc.getValue(), Files.getLastModifiedTime(file).toMillis(), compressionType, true);
+    }
+
+    //Adds all regular files under root, names are relative to root, in sorted order so archives are reproducible
+    public void addTree(Path root) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            StringBuilder name = new StringBuilder();
+            for (Path part : root.relativize(file)) {
+                if (name.length() > 0) { name.append('/'); }
+                name.append(part);
+            }
+
+            add(file, name.toString());
+        }
+    }
+
+    public List<ArchiveEntry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) { return; }
+        closed = true;
+
+        try {
+            if (counter.failed) { throw new IOException("Archive is incomplete, earlier write failed"); }
+            long directoryOffset = counter.count;
+            for (ArchiveEntry entry : entries) { ArchiveFormat.writeEntry(out, entry); }
+            ArchiveFormat.writeTrailer(out, directoryOffset, entries.size());
+        } finally {
+            out.close();
+        }
+    }
+
+    //Counts bytes which were given to file, when write fails it is not known how many of them got there
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+        private boolean failed = false;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+                count++;
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+                count += len;
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
+    //Entry streams must not close archive stream
+    private static class ShieldOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        private ShieldOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            //Archive stream is flushed only on close, entries are small and flushing each one would be slow
+        }
+    }
+}
@@ -1,26 +1,542 @@
 package compression.deflate;
 
-
+import compression.BitReader;
+import compression.BitWriter;
+import compression.CompressionLevel;
+import compression.CompressionMetrics;
+import compression.CompressionType;
+import compression.Incompressible;
+import compression.ProgressTracker;
+import compression.huffman.HuffmanDecoder;
 import compression.huffman.HuffmanEncoder;
+import compression.huffman.HuffmanTree;
+import compression.jfr.BlockEvent;
+import compression.jfr.PhaseEvent;
+import compression.lz77.HashChain;
 import compression.lz77.LZ77Encoder;
 
-import java.util.function.Consumer;
-import java.util.stream.Stream;
+import java.util.Arrays;
+
+//LZ77 matches are huffman coded right away, the same way as real DEFLATE (RFC 1951) does it: literals, end of block
+//and match lengths share one alphabet, distances have their own one, and both get new codes in every block
+//Distance codes 30 and 31 are taken from Deflate64, so that the whole 64 KB window can be used
+//Data:  [size: variable length] [dictionary id: 32 bits, only with dictionary] [block] [block] ... until size bytes are decoded
+//       or when that is smaller: [size: variable length = 0] [raw bytes until the end], empty data is never compressed
+//Block: [type: 1 bit] and then stored: [length: variable length] [raw bytes]
+//                          or huffman: [preset: 1 bit] [literal/length header] [distance header], unless preset codes are used
+//Preset codes are codes of dictionary, when it has them, otherwise fixed codes of real DEFLATE, which cost nothing to
+//describe, so small inputs don't pay for headers bigger than their data
+//                                      [symbols] [end of block]
 
 public class Deflate {
-    @SuppressWarnings("unchecked")
-    public static byte[] compress(byte[] data, Consumer<Float> ...callbacks) {
-        data = LZ77Encoder.compress(data, progress -> Stream.of(callbacks).forEach(e -> e.accept(progress/2f)));
-        data = HuffmanEncoder.compress(data, progress -> Stream.of(callbacks).forEach(e -> e.accept(49.9f + progress/2f)));
-        for (Consumer<Float> callback : callbacks) { callback.accept(100f); }
-        return data;
-    }
-
-    @SuppressWarnings("unchecked")
-    public static byte[] decompress(byte[] data, Consumer<Float> ...callbacks) {
-        data = HuffmanEncoder.decompress(data, progress -> Stream.of(callbacks).forEach(e -> e.accept(progress/2f)));
-        data = LZ77Encoder.decompress(data, progress -> Stream.of(callbacks).forEach(e -> e.accept(49.9f + progress/2f)));
-        for (Consumer<Float> callback : callbacks) { callback.accept(100f); }
-        return data;
+    private static final int BLOCK_SIZE = 1 << 16; //Input bytes per block, every block has its own huffman codes
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 258;
+    static final int WINDOW_SIZE = 1 << 16;
+    private static final int TOO_FAR = 4096; //Shortest matches pay off only when distance is small
+    static final int END_OF_BLOCK = 256;
+    static final int LITERAL_LENGTH_SYMBOLS = 286;
+    static final int DISTANCE_SYMBOLS = 32;
+
+    private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+    private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577, 32769, 49153 };
+    private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13, 14, 14 };
+    private static final int[] LENGTH_CODE = new int[MAX_MATCH + 1];
+
+    //Distances up to 256 are looked up directly, longer ones by (distance - 1) / 128, codes above 256 are aligned to 128
+    private static final int[] DISTANCE_CODE = new int[256 + (WINDOW_SIZE >>> 7)];
+    private static final HuffmanTree[] FIXED_TREES = new HuffmanTree[2];
+    private static final HuffmanDecoder[] FIXED_DECODERS = new HuffmanDecoder[2];
+
+    static {
+        for (int code = 0; code < LENGTH_BASE.length; code++) {
+            for (int length = LENGTH_BASE[code]; (length < LENGTH_BASE[code] + (1 << LENGTH_EXTRA[code])) && (length <= MAX_MATCH); length++) { LENGTH_CODE[length] = code; }
+        }
+
+        for (int code = 0; code < DISTANCE_BASE.length; code++) {
+            for (int distance = DISTANCE_BASE[code]; distance < DISTANCE_BASE[code] + (1 << DISTANCE_EXTRA[code]); distance++) {
+                DISTANCE_CODE[(distance <= 256) ? (distance - 1) : (256 + ((distance - 1) >>> 7))] = code;
+            }
+        }
+
+        //Same lengths as fixed codes of RFC 1951, only alphabets are shorter: 286 literal/length and 32 distance symbols
+        int[] literalLengths = new int[LITERAL_LENGTH_SYMBOLS];
+        for (int symbol = 0; symbol < LITERAL_LENGTH_SYMBOLS; symbol++) { literalLengths[symbol] = (symbol < 144) ? 8 : (symbol < 256) ? 9 : (symbol < 280) ? 7 : 8; }
+        int[] distanceLengths = new int[DISTANCE_SYMBOLS];
+        Arrays.fill(distanceLengths, 5);
+        FIXED_TREES[0] = HuffmanTree.fromLengths(literalLengths);
+        FIXED_TREES[1] = HuffmanTree.fromLengths(distanceLengths);
+        FIXED_DECODERS[0] = new HuffmanDecoder(FIXED_TREES[0]);
+        FIXED_DECODERS[1] = new HuffmanDecoder(FIXED_TREES[1]);
+    }
+
+    public static byte[] compress(byte[] data) {
+        return compress(data, CompressionLevel.DEFAULT_LEVEL, ProgressTracker.NONE);
+    }
+
+    public static byte[] compress(byte[] data, int level, ProgressTracker tracker) {
+        return compress(data, level, tracker, null);
+    }
+
+    public static byte[] compress(byte[] data, DeflateDictionary dictionary) {
+        return compress(data, CompressionLevel.DEFAULT_LEVEL, ProgressTracker.NONE, dictionary);
+    }
+
+    public static byte[] compress(byte[] data, int level, ProgressTracker tracker, DeflateDictionary dictionary) {
+        return compress(data, level, tracker, dictionary, new Context());
+    }
+
+    //With dictionary, data is compressed as if it came right after dictionary content, so even the first bytes have
+    //matches, and if dictionary has trained codes, blocks can use them instead of writing their own headers
+    //Context keeps match finder tables and buffers, so they can be used again for the next call, and metrics of the call
+    public static byte[] compress(byte[] data, int level, ProgressTracker tracker, DeflateDictionary dictionary, Context context) {
+        CompressionLevel compressionLevel = CompressionLevel.of(level);
+        long started = System.nanoTime();
+        CompressionMetrics metrics = context.metrics;
+        metrics.reset();
+        if (data.length == 0) { return data; }
+        byte[] buffer = (dictionary == null) ? data : dictionary.prepend(data);
+        int start = buffer.length - data.length;
+        BitWriter bitWriter = context.getBitWriter(data.length / 2);
+
+        bitWriter.pushVarLong(data.length);
+        if (dictionary != null) { bitWriter.pushBits(dictionary.getId() & 0xffffffffL, Integer.SIZE); }
+
+        try {
+            HuffmanTree[] presetTrees = ((dictionary == null) || (dictionary.getTrees() == null)) ? FIXED_TREES : dictionary.getTrees();
+            parse(buffer, start, compressionLevel, tracker, context, (block, from, to) -> writeBlock(bitWriter, context.headerWriter, block, buffer, from, to, presetTrees, metrics));
+            tracker.finish();
+            byte[] output = bitWriter.getBytes(true);
+
+            //Few bytes don't pay for size and block headers, and neither does data which is compressed already
+            if (output.length > data.length + 1) {
+                output = store(data);
+                metrics.addStoredBlock();
+            }
+
+            //Blocks are written while parsing goes on, so the rest of parsing time is match finding
+            long nanos = System.nanoTime() - started;
+            metrics.addTotalNanos(nanos);
+            metrics.addMatchNanos(nanos - metrics.getTreeNanos() - metrics.getEncodeNanos());
+            metrics.addCandidatesProbed(context.hashChain.getProbes());
+            metrics.addBytes(data.length, output.length);
+            return output;
+        } finally {
+            context.reset();
+        }
+    }
+
+    //Counts symbols which data would produce after dictionary content, used to train dictionary codes
+    static void countSymbols(byte[] data, DeflateDictionary dictionary, Context context, int[] literalFrequencies, int[] distanceFrequencies) {
+        byte[] buffer = dictionary.prepend(data);
+
+        parse(buffer, buffer.length - data.length, CompressionLevel.of(CompressionLevel.DEFAULT_LEVEL), ProgressTracker.NONE, context, (block, from, to) -> {
+            for (int i = 0; i < LITERAL_LENGTH_SYMBOLS; i++) { literalFrequencies[i] += block.literalFrequencies[i]; }
+            for (int i = 0; i < DISTANCE_SYMBOLS; i++) { distanceFrequencies[i] += block.distanceFrequencies[i]; }
+            block.clear();
+        });
+
+        context.reset();
+    }
+
+    //Finds matches in buffer from "start" and gives them to blockWriter in blocks, bytes before start are only searched
+    private static void parse(byte[] buffer, int start, CompressionLevel compressionLevel, ProgressTracker tracker, Context context, BlockWriter blockWriter) {
+        HashChain hashChain = context.getHashChain(buffer, compressionLevel);
+        Block block = context.getBlock(buffer.length - start);
+        int lazySteps = compressionLevel.getLazySteps();
+        int[][] matches = new int[lazySteps + 1][]; //Matches for position, position + 1, ... which are already searched
+        int blockStart = start;
+        int position = start;
+        PhaseEvent parseEvent = PhaseEvent.start(CompressionType.DEFLATE, PhaseEvent.PARSE);
+
+        while (position < buffer.length) {
+            //Already compressed data is stored right away, without searching for matches which are not there
+            if ((position == blockStart) && Incompressible.check(buffer, position, Math.min(position + BLOCK_SIZE, buffer.length))) {
+                position = Math.min(position + BLOCK_SIZE, buffer.length);
+                parseEvent.finish(position - blockStart, 0);
+                blockWriter.write(block, blockStart, position);
+                parseEvent = PhaseEvent.start(CompressionType.DEFLATE, PhaseEvent.PARSE);
+                blockStart = position;
+                Arrays.fill(matches, null);
+                tracker.update(position - start, buffer.length - start);
+                continue;
+            }
+
+            if (matches[0] == null) { matches[0] = findMatch(hashChain, position); }
+            int length = matches[0][0];
+            boolean lazy = false;
+
+            //Lazy matching, same as in LZ77EncoderV2, literal is written when one of next positions has better match
+            for (int step = 1; (step <= lazySteps) && (length >= MIN_MATCH) && (length < compressionLevel.getNiceLength()) && (position + step < buffer.length); step++) {
+                if (matches[step] == null) { matches[step] = findMatch(hashChain, position + step); }
+                if (matches[step][0] > length + (step - 1) * 2) { lazy = true; break; }
+            }
+
+            if ((length >= MIN_MATCH) && !lazy) {
+                block.addMatch(length, position - matches[0][1]);
+                position += length;
+                Arrays.fill(matches, null);
+            } else {
+                block.addLiteral(buffer[position] & 0xff);
+                position++;
+                System.arraycopy(matches, 1, matches, 0, lazySteps); //Match for next position is now first
+                matches[lazySteps] = null;
+            }
+
+            if (position - blockStart >= BLOCK_SIZE) {
+                parseEvent.finish(position - blockStart, 0);
+                blockWriter.write(block, blockStart, position);
+                parseEvent = PhaseEvent.start(CompressionType.DEFLATE, PhaseEvent.PARSE);
+                blockStart = position;
+            }
+
+            tracker.update(position - start, buffer.length - start);
+        }
+
+        if (position > blockStart) {
+            parseEvent.finish(position - blockStart, 0);
+            blockWriter.write(block, blockStart, position);
+        }
+    }
+
+    //Returns { length, offset } or { -1, -1 } when there is no match worth taking
+    private static int[] findMatch(HashChain hashChain, int position) {
+        int[] match = hashChain.nextLongestMatch(position);
+        if ((match[0] == MIN_MATCH) && (position - match[1] > TOO_FAR)) { return new int[] { -1, -1 }; }
+        return match;
+    }
+
+    //Block is written with huffman codes, unless raw bytes take less space, block without tokens was not parsed at all
+    //and is always stored. Huffman block has one more bit which tells if block uses preset codes or its own ones
+    private static void writeBlock(BitWriter bitWriter, BitWriter headerWriter, Block block, byte[] data, int from, int to, HuffmanTree[] presetTrees, CompressionMetrics metrics) {
+        long started = System.nanoTime();
+        long storedSize = BitWriter.getVarLongSize(to - from) + (long) (to - from) * 8;
+        long startBits = bitWriter.getSize(true);
+        BlockEvent blockEvent = BlockEvent.start(CompressionType.DEFLATE, false);
+
+        if (block.size == 0) {
+            writeStoredBlock(bitWriter, data, from, to);
+            metrics.addSkippedBlock();
+            metrics.addEncodeNanos(System.nanoTime() - started);
+            blockEvent.finish(BlockEvent.SKIPPED, to - from, (bitWriter.getSize(true) - startBits + 7) / 8);
+            return;
+        }
+
+        PhaseEvent buildEvent = PhaseEvent.start(CompressionType.DEFLATE, PhaseEvent.HUFFMAN_BUILD);
+
+        metrics.addLiterals(block.size - block.matches);
+        metrics.addMatches(block.matches, block.matchLengthSum, block.matchDistanceSum);
+
+        block.literalFrequencies[END_OF_BLOCK] = 1;
+        HuffmanTree literalTree = new HuffmanTree(block.literalFrequencies);
+        HuffmanTree distanceTree = new HuffmanTree(block.distanceFrequencies);
+
+        headerWriter.clear();
+        HuffmanEncoder.encodeHeader(headerWriter, literalTree);
+        HuffmanEncoder.encodeHeader(headerWriter, distanceTree);
+        long huffmanSize = headerWriter.getSize(true) + getSymbolsSize(block, literalTree, distanceTree);
+        long presetSize = getSymbolsSize(block, presetTrees[0], presetTrees[1]);
+        long treesBuilt = System.nanoTime();
+        metrics.addTreeNanos(treesBuilt - started);
+        buildEvent.finish(to - from, (headerWriter.getSize(true) + 7) / 8);
+
+        if (storedSize <= Math.min(huffmanSize, presetSize)) {
+            writeStoredBlock(bitWriter, data, from, to);
+            block.clear();
+            metrics.addStoredBlock();
+            metrics.addEncodeNanos(System.nanoTime() - treesBuilt);
+            blockEvent.finish(BlockEvent.STORED, to - from, (bitWriter.getSize(true) - startBits + 7) / 8);
+            return;
+        }
+
+        PhaseEvent encodeEvent = PhaseEvent.start(CompressionType.DEFLATE, PhaseEvent.HUFFMAN_ENCODE);
+
+        boolean preset = presetSize <= huffmanSize;
+        bitWriter.pushBits(1, 1);
+        bitWriter.pushBits(preset ? 1 : 0, 1);
+
+        if (preset) {
+            literalTree = presetTrees[0];
+            distanceTree = presetTrees[1];
+        } else {
+            HuffmanEncoder.encodeHeader(bitWriter, literalTree);
+            HuffmanEncoder.encodeHeader(bitWriter, distanceTree);
+        }
+
+        int[] literalCodes = literalTree.getCodes(), literalLengths = literalTree.getLengths();
+        int[] distanceCodes = distanceTree.getCodes(), distanceLengths = distanceTree.getLengths();
+
+        //Extra bits go right after the code, so both of them are pushed at once
+        for (int i = 0; i < block.size; i++) {
+            int value = block.values[i];
+            int distance = block.distances[i];
+
+            if (distance == 0) {
+                bitWriter.pushBits(literalCodes[value], literalLengths[value]);
+                continue;
+            }
+
+            int lengthCode = LENGTH_CODE[value];
+            int symbol = END_OF_BLOCK + 1 + lengthCode;
+            int extra = LENGTH_EXTRA[lengthCode];
+            bitWriter.pushBits(((long) literalCodes[symbol] << extra) | (value - LENGTH_BASE[lengthCode]), literalLengths[symbol] + extra);
+
+            int distanceCode = getDistanceCode(distance);
+            extra = DISTANCE_EXTRA[distanceCode];
+            bitWriter.pushBits(((long) distanceCodes[distanceCode] << extra) | (distance - DISTANCE_BASE[distanceCode]), distanceLengths[distanceCode] + extra);
+        }
+
+        bitWriter.pushBits(literalCodes[END_OF_BLOCK], literalLengths[END_OF_BLOCK]);
+        block.clear();
+        metrics.addHuffmanBlock();
+        metrics.addEncodeNanos(System.nanoTime() - treesBuilt);
+        long compressedSize = (bitWriter.getSize(true) - startBits + 7) / 8;
+        encodeEvent.finish(to - from, compressedSize);
+        blockEvent.finish(preset ? BlockEvent.PRESET : BlockEvent.HUFFMAN, to - from, compressedSize);
+    }
+
+    private static void writeStoredBlock(BitWriter bitWriter, byte[] data, int from, int to) {
+        bitWriter.pushBits(0, 1);
+        bitWriter.pushVarLong(to - from);
+        bitWriter.pushBytes(data, from, to - from);
+    }
+
+    //Zero size can't mean empty data, so it marks data which is stored whole right after it
+    private static byte[] store(byte[] data) {
+        byte[] output = new byte[data.length + 1];
+        System.arraycopy(data, 0, output, 1, data.length);
+        return output;
+    }
+
+    //Size in bits of all symbols of block with their extra bits, without headers
+    //Preset codes may not have every symbol, then they can't be used and size is Long.MAX_VALUE
+    private static long getSymbolsSize(Block block, HuffmanTree literalTree, HuffmanTree distanceTree) {
+        long size = 0;
+
+        for (int symbol = 0; symbol < LITERAL_LENGTH_SYMBOLS; symbol++) {
+            if (block.literalFrequencies[symbol] == 0) { continue; }
+            if (literalTree.getCodeLength(symbol) == 0) { return Long.MAX_VALUE; }
+            int extra = (symbol > END_OF_BLOCK) ? LENGTH_EXTRA[symbol - END_OF_BLOCK - 1] : 0;
+            size += (long) block.literalFrequencies[symbol] * (literalTree.getCodeLength(symbol) + extra);
+        }
+
+        for (int symbol = 0; symbol < DISTANCE_SYMBOLS; symbol++) {
+            if (block.distanceFrequencies[symbol] == 0) { continue; }
+            if (distanceTree.getCodeLength(symbol) == 0) { return Long.MAX_VALUE; }
+            size += (long) block.distanceFrequencies[symbol] * (distanceTree.getCodeLength(symbol) + DISTANCE_EXTRA[symbol]);
+        }
+
+        return size;
+    }
+
+    private static int getDistanceCode(int distance) {
+        return DISTANCE_CODE[(distance <= 256) ? (distance - 1) : (256 + ((distance - 1) >>> 7))];
+    }
+
+    public static byte[] decompress(byte[] data) {
+        return decompress(data, ProgressTracker.NONE);
+    }
+
+    public static byte[] decompress(byte[] data, ProgressTracker tracker) {
+        return decompress(data, tracker, null);
+    }
+
+    public static byte[] decompress(byte[] data, DeflateDictionary dictionary) {
+        return decompress(data, ProgressTracker.NONE, dictionary);
+    }
+
+    //Data compressed with dictionary must be decompressed with the same one, it is checked by dictionary id
+    public static byte[] decompress(byte[] data, ProgressTracker tracker, DeflateDictionary dictionary) {
+        return decompress(data, tracker, dictionary, new CompressionMetrics());
+    }
+
+    //Metrics are reset and filled with this call, tree phase is reading headers, encode phase is decoding symbols
+    public static byte[] decompress(byte[] data, ProgressTracker tracker, DeflateDictionary dictionary, CompressionMetrics metrics) {
+        long started = System.nanoTime();
+        metrics.reset();
+        if (data.length == 0) { return data; }
+        BitReader bitReader = new BitReader(data);
+        long size = bitReader.getVarLong();
+        if (size == 0) { return load(data, tracker, metrics, started); }
+        int start = (dictionary == null) ? 0 : dictionary.size();
+        if (size > CompressionType.MAX_DATA_SIZE - start) { throw new RuntimeException("deflate data is too big: " + size); }
+        if ((dictionary != null) && ((int) bitReader.getBits(Integer.SIZE) != dictionary.getId())) { throw new RuntimeException("data was compressed with different dictionary"); }
+
+        //Dictionary content goes before output, so matches can reach into it
+        byte[] output = (dictionary == null) ? new byte[(int) size] : dictionary.prepend(new byte[(int) size]);
+        HuffmanDecoder[] presetDecoders = ((dictionary == null) || (dictionary.getDecoders() == null)) ? FIXED_DECODERS : dictionary.getDecoders();
+        int position = start;
+        long literals = 0, matches = 0, lengthSum = 0, distanceSum = 0, treeNanos = 0;
+
+        while (position < output.length) {
+            if (bitReader.availableSize(true) <= 0) { throw new RuntimeException("unexpected end of deflate data"); }
+
+            BlockEvent blockEvent = BlockEvent.start(CompressionType.DEFLATE, true);
+            int blockStart = position;
+            long startBits = bitReader.availableSize(true);
+
+            if (bitReader.getBits(1) == 0) {
+                long length = bitReader.getVarLong();
+                if ((length < 0) || (length > output.length - position)) { throw new RuntimeException("stored block is too long"); }
+                bitReader.getBytes(output, position, (int) length);
+                position += (int) length;
+                metrics.addStoredBlock();
+                blockEvent.finish(BlockEvent.STORED, length, (startBits - bitReader.availableSize(true) + 7) / 8);
+                tracker.update(position - start, output.length - start);
+                continue;
+            }
+
+            long headerStarted = System.nanoTime();
+            boolean preset = bitReader.getBits(1) == 1;
+            HuffmanDecoder literalDecoder = preset ? presetDecoders[0] : new HuffmanDecoder(HuffmanEncoder.decodeHeader(bitReader));
+            HuffmanDecoder distanceDecoder = preset ? presetDecoders[1] : new HuffmanDecoder(HuffmanEncoder.decodeHeader(bitReader));
+            treeNanos += System.nanoTime() - headerStarted;
+            metrics.addHuffmanBlock();
+
+            while (true) {
+                int symbol = literalDecoder.decode(bitReader);
+
+                if (symbol < END_OF_BLOCK) {
+                    if (position >= output.length) { throw new RuntimeException("deflate data is longer than its size"); }
+                    output[position++] = (byte) symbol;
+                    literals++;
+                    continue;
+                }
+
+                if (symbol == END_OF_BLOCK) {
+                    blockEvent.finish(preset ? BlockEvent.PRESET : BlockEvent.HUFFMAN, position - blockStart, (startBits - bitReader.availableSize(true) + 7) / 8);
+                    break;
+                }
+                if (symbol >= LITERAL_LENGTH_SYMBOLS) { throw new RuntimeException("invalid length symbol: " + symbol); }
+
+                int lengthCode = symbol - END_OF_BLOCK - 1;
+                int length = LENGTH_BASE[lengthCode] + ((LENGTH_EXTRA[lengthCode] > 0) ? (int) bitReader.getBits(LENGTH_EXTRA[lengthCode]) : 0);
+                int distanceCode = distanceDecoder.decode(bitReader);
+                if (distanceCode >= DISTANCE_SYMBOLS) { throw new RuntimeException("invalid distance symbol: " + distanceCode); }
+                int distance = DISTANCE_BASE[distanceCode] + ((DISTANCE_EXTRA[distanceCode] > 0) ? (int) bitReader.getBits(DISTANCE_EXTRA[distanceCode]) : 0);
+
+                if ((distance > position) || (length > output.length - position)) { throw new RuntimeException("invalid match at position " + position); }
+
+                LZ77Encoder.copyMatch(output, position, distance, length);
+                position += length;
+                matches++;
+                lengthSum += length;
+                distanceSum += distance;
+                tracker.update(position - start, output.length - start);
+            }
+        }
+
+        tracker.finish();
+        long nanos = System.nanoTime() - started;
+        metrics.addTotalNanos(nanos);
+        metrics.addTreeNanos(treeNanos);
+        metrics.addEncodeNanos(nanos - treeNanos);
+        metrics.addLiterals(literals);
+        metrics.addMatches(matches, lengthSum, distanceSum);
+        metrics.addBytes(data.length, output.length - start);
+        return (start == 0) ? output : Arrays.copyOfRange(output, start, output.length);
+    }
+
+    //Data which was stored whole, it doesn't depend on dictionary
+    private static byte[] load(byte[] data, ProgressTracker tracker, CompressionMetrics metrics, long started) {
+        BlockEvent blockEvent = BlockEvent.start(CompressionType.DEFLATE, true);
+        byte[] output = Arrays.copyOfRange(data, 1, data.length);
+        blockEvent.finish(BlockEvent.STORED, output.length, data.length);
+        tracker.finish();
+        metrics.addStoredBlock();
+        metrics.addTotalNanos(System.nanoTime() - started);
+        metrics.addBytes(data.length, output.length);
+        return output;
+    }
+
+    //Working memory of compression which can be used for many inputs one after another, but not at the same time
+    //Nothing is allocated until first use, and tables are sized by input, so small inputs keep it small
+    public static class Context {
+        private final BitWriter headerWriter = new BitWriter(256);
+        private final CompressionMetrics metrics = new CompressionMetrics();
+        private HashChain hashChain;
+        private Block block;
+        private BitWriter bitWriter;
+
+        private HashChain getHashChain(byte[] buffer, CompressionLevel compressionLevel) {
+            if (hashChain == null) {
+                hashChain = new HashChain(buffer, MAX_MATCH, WINDOW_SIZE + 1, MIN_MATCH, compressionLevel.getMaxChain(), compressionLevel.getNiceLength());
+            } else {
+                hashChain.reset(buffer, compressionLevel.getMaxChain(), compressionLevel.getNiceLength());
+            }
+
+            return hashChain;
+        }
+
+        //Block never has more tokens than input bytes
+        private Block getBlock(int size) {
+            int capacity = Math.min(BLOCK_SIZE, size);
+            if ((block == null) || (block.values.length < capacity)) { block = new Block(capacity); }
+            block.clear();
+            return block;
+        }
+
+        private BitWriter getBitWriter(int capacity) {
+            if (bitWriter == null) { bitWriter = new BitWriter(capacity); }
+            bitWriter.clear();
+            return bitWriter;
+        }
+
+        //Metrics of the last compression with this context
+        public CompressionMetrics getMetrics() {
+            return metrics;
+        }
+
+        //Drops references to the last input, tables and buffers stay for the next one, metrics too
+        public void reset() {
+            if (hashChain != null) { hashChain.clear(); }
+            if (bitWriter != null) { bitWriter.clear(); }
+        }
+    }
+
+    private interface BlockWriter {
+        void write(Block block, int from, int to);
+    }
+
+    //Tokens of one block, literal has distance 0 and value is the byte, match has length as value
+    private static class Block {
+        private final int[] values;
+        private final int[] distances;
+        private final int[] literalFrequencies = new int[LITERAL_LENGTH_SYMBOLS];
+        private final int[] distanceFrequencies = new int[DISTANCE_SYMBOLS];
+        private int size = 0;
+        private int matches = 0;
+        private long matchLengthSum = 0;
+        private long matchDistanceSum = 0;
+
+        private Block(int capacity) {
+            this.values = new int[capacity];
+            this.distances = new int[capacity];
+        }
+
+        private void addLiteral(int value) {
+            values[size] = value;
+            distances[size++] = 0;
+            literalFrequencies[value]++;
+        }
+
+        private void addMatch(int length, int distance) {
+            values[size] = length;
+            distances[size++] = distance;
+            literalFrequencies[END_OF_BLOCK + 1 + LENGTH_CODE[length]]++;
+            distanceFrequencies[getDistanceCode(distance)]++;
+            matches++;
+            matchLengthSum += length;
+            matchDistanceSum += distance;
+        }
+
+        private void clear() {
+            size = 0;
+            matches = 0;
+            matchLengthSum = matchDistanceSum = 0;
+            Arrays.fill(literalFrequencies, 0);
+            Arrays.fill(distanceFrequencies, 0);
+        }
     }
 }
@@ -0,0 +1,228 @@
+package compression.deflate;
+
+import compression.huffman.HuffmanDecoder;
+import compression.huffman.HuffmanTree;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+//Preset dictionary for small inputs, content is put in LZ77 window before data, so data can have matches from the first
+//byte, and optional trained codes let blocks skip their huffman headers, which for small inputs cost more than data itself
+//Trainer picks segments which contain the most substrings shared by many samples (like COVER in zstd): every 8 byte
+//substring is scored by how many samples have it, segment score is sum of its substrings, and once segment is taken,
+//its substrings are worth nothing, so the next segments bring something new. Best segments go to the end of content,
+//where distances to data are the shortest
+//Saved: [magic: 4 bytes "NZDC"] [content length: 4 bytes] [content] [has codes: 1 byte] [code lengths: 1 byte each]
+
+public class DeflateDictionary {
+    public static final byte[] MAGIC = new byte[] { 'N', 'Z', 'D', 'C' };
+    public static final int MAX_SIZE = Deflate.WINDOW_SIZE; //Anything before that can't be reached by match distance
+    public static final int DEFAULT_SIZE = 1 << 14;
+    private static final int KMER_LENGTH = 8;
+    private static final int SEGMENT_SIZE = 256;
+    private static final int SEGMENT_STEP = SEGMENT_SIZE / 4;
+    private static final int HASH_BITS = 20;
+    private final byte[] content;
+    private final HuffmanTree[] trees; //Literal/length and distance codes, or null
+    private final HuffmanDecoder[] decoders; //Decode tables for trees, built once for all inputs
+    private final int id;
+
+    public DeflateDictionary(byte[] content) {
+        this(content, null, null);
+    }
+
+    public DeflateDictionary(byte[] content, int[] literalLengths, int[] distanceLengths) {
+        if (content.length > MAX_SIZE) { throw new IllegalArgumentException(String.format("dictionary can't be bigger than %d bytes", MAX_SIZE)); }
+        this.content = content;
+        this.trees = (literalLengths == null) ? null : new HuffmanTree[] { HuffmanTree.fromLengths(literalLengths), HuffmanTree.fromLengths(distanceLengths) };
+        this.decoders = (trees == null) ? null : new HuffmanDecoder[] { new HuffmanDecoder(trees[0]), new HuffmanDecoder(trees[1]) };
+        this.id = checksum(toBytes());
+    }
+
+    public static DeflateDictionary train(List<byte[]> samples) {
+        return train(samples, DEFAULT_SIZE);
+    }
+
+    //Content is trained first, then codes are taken from symbols which samples give with that content
+    public static DeflateDictionary train(List<byte[]> samples, int size) {
+        DeflateDictionary dictionary = new DeflateDictionary(selectContent(samples, Math.min(size, MAX_SIZE)));
+        int[] literalFrequencies = new int[Deflate.LITERAL_LENGTH_SYMBOLS];
+        int[] distanceFrequencies = new int[Deflate.DISTANCE_SYMBOLS];
+        Deflate.Context context = new Deflate.Context();
+        for (byte[] sample : samples) { Deflate.countSymbols(sample, dictionary, context, literalFrequencies, distanceFrequencies); }
+
+        //Every symbol must have a code, because data can have symbols which samples didn't have
+        for (int i = 0; i < literalFrequencies.length; i++) { literalFrequencies[i]++; }
+        for (int i = 0; i < distanceFrequencies.length; i++) { distanceFrequencies[i]++; }
+        return new DeflateDictionary(dictionary.content, new HuffmanTree(literalFrequencies).getLengths(), new HuffmanTree(distanceFrequencies).getLengths());
+    }
+
+    //Trains from all regular files in directory and its subdirectories
+    public static DeflateDictionary train(Path directory, int size) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        List<byte[]> samples = new ArrayList<>(files.size());
+        for (Path file : files) { samples.add(Files.readAllBytes(file)); }
+        return train(samples, size);
+    }
+
+    private static byte[] selectContent(List<byte[]> samples, int size) {
+        int[] counts = new int[1 << HASH_BITS]; //In how many samples substring is
+        int[] lastSample = new int[1 << HASH_BITS]; //Last sample which counted substring, so every sample counts it once
+
+        for (int sample = 0; sample < samples.size(); sample++) {
+            byte[] data = samples.get(sample);
+
+            for (int i = 0; i + KMER_LENGTH <= data.length; i++) {
+                int hash = hash(data, i);
+                if (lastSample[hash] == sample + 1) { continue; }
+                lastSample[hash] = sample + 1;
+                counts[hash]++;
+            }
+        }
+
+        //Candidates are { score, sample, offset }, score is updated lazily, when candidate comes to the top
+        PriorityQueue<long[]> candidates = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        for (int sample = 0; sample < samples.size(); sample++) {
+            byte[] data = samples.get(sample);
+
+            for (int offset = 0; offset < data.length; offset += SEGMENT_STEP) {
+                long score = score(data, offset, counts);
+                if (score > 0) { candidates.add(new long[] { score, sample, offset }); }
+            }
+        }
+
+        List<byte[]> segments = new ArrayList<>();
+        int total = 0;
+
+        while ((total < size) && !candidates.isEmpty()) {
+            long[] candidate = candidates.poll();
+            byte[] data = samples.get((int) candidate[1]);
+            int offset = (int) candidate[2];
+            long score = score(data, offset, counts);
+            if (score == 0) { continue; }
+
+            //Other segments could have taken part of its substrings, then it goes back with its real score
+            if (!candidates.isEmpty() && (score < candidates.peek()[0])) {
+                candidate[0] = score;
+                candidates.add(candidate);
+                continue;
+            }
+
+            int length = Math.min(Math.min(SEGMENT_SIZE, data.length - offset), size - total);
+            segments.add(Arrays.copyOfRange(data, offset, offset + length));
+            total += length;
+            for (int i = offset; i + KMER_LENGTH <= offset + length; i++) { counts[hash(data, i)] = 0; }
+        }
+
+        byte[] content = new byte[total];
+        for (byte[] segment : segments) {
+            total -= segment.length;
+            System.arraycopy(segment, 0, content, total, segment.length);
+        }
+
+        return content;
+    }
+
+    //Substrings which only one sample has are not worth anything
+    private static long score(byte[] data, int offset, int[] counts) {
+        long score = 0;
+
+        for (int i = offset; (i < offset + SEGMENT_SIZE) && (i + KMER_LENGTH <= data.length); i++) {
+            int count = counts[hash(data, i)];
+            if (count > 1) { score += count; }
+        }
+
+        return score;
+    }
+
+    private static int hash(byte[] data, int position) {
+        long key = 0;
+        for (int i = 0; i < KMER_LENGTH; i++) { key = (key << 8) | (data[position + i] & 0xff); }
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - HASH_BITS));
+    }
+
+    public byte[] toBytes() {
+        int codes = (trees == null) ? 0 : Deflate.LITERAL_LENGTH_SYMBOLS + Deflate.DISTANCE_SYMBOLS;
+        ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + Integer.BYTES + content.length + 1 + codes);
+        buffer.put(MAGIC).putInt(content.length).put(content).put((byte) ((trees == null) ? 0 : 1));
+
+        if (trees != null) {
+            for (int length : trees[0].getLengths()) { buffer.put((byte) length); }
+            for (int length : trees[1].getLengths()) { buffer.put((byte) length); }
+        }
+
+        return buffer.array();
+    }
+
+    public static DeflateDictionary fromBytes(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) { throw new RuntimeException("not a deflate dictionary"); }
+
+            int length = buffer.getInt();
+            if ((length < 0) || (length > MAX_SIZE)) { throw new RuntimeException("invalid dictionary size: " + length); }
+            byte[] content = new byte[length];
+            buffer.get(content);
+            if (buffer.get() == 0) { return new DeflateDictionary(content); }
+
+            int[] literalLengths = new int[Deflate.LITERAL_LENGTH_SYMBOLS];
+            int[] distanceLengths = new int[Deflate.DISTANCE_SYMBOLS];
+            for (int i = 0; i < literalLengths.length; i++) { literalLengths[i] = buffer.get(); }
+            for (int i = 0; i < distanceLengths.length; i++) { distanceLengths[i] = buffer.get(); }
+            return new DeflateDictionary(content, literalLengths, distanceLengths);
+        } catch (BufferUnderflowException ex) {
+            throw new RuntimeException("dictionary is truncated");
+        }
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    //Returns new array with content followed by data
+    byte[] prepend(byte[] data) {
+        byte[] buffer = Arrays.copyOf(content, content.length + data.length);
+        System.arraycopy(data, 0, buffer, content.length, data.length);
+        return buffer;
+    }
+
+    HuffmanTree[] getTrees() {
+        return trees;
+    }
+
+    HuffmanDecoder[] getDecoders() {
+        return decoders;
+    }
+
+    //Checksum of saved dictionary, compressed data keeps it, so it is not decompressed with a wrong dictionary
+    public int getId() {
+        return id;
+    }
+
+    public int size() {
+        return content.length;
+    }
+
+    public boolean hasCodes() {
+        return trees != null;
+    }
+}
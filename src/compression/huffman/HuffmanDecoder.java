@@ -0,0 +1,80 @@
+package compression.huffman;
+
+import compression.BitReader;
+
+//Instead of walking the tree bit by bit, we peek several bits at once and look up the symbol in table
+//Every table entry is either a leaf: (character << 4) | bits used, or link to next level table:
+//(1 << 31) | (offset << 4) | bits of that table. Codes are canonical and at most 15 bits long, so
+//root table takes first 10 bits and every longer code needs just one more small table
+//Entry 0 is never valid (leaf always uses at least one bit), it is left for codes which are not used
+
+public class HuffmanDecoder {
+    private static final int TABLE_BITS = 10; //1024 entries per level, 4 KB, which fits in L1 cache
+    private static final int LINK_FLAG = 0x80000000;
+    private final int[] table;
+    private final int rootBits;
+
+    public HuffmanDecoder(HuffmanTree huffmanTree) {
+        this(huffmanTree.getLengths(), huffmanTree.getCodes(), huffmanTree.getMaxLength());
+    }
+
+    private HuffmanDecoder(int[] lengths, int[] codes, int maxLength) {
+        this.rootBits = Math.min(maxLength, TABLE_BITS);
+        if (rootBits == 0) { table = new int[0]; return; }
+
+        //Find how many bits every second level table needs, it depends on longest code with that prefix
+        int[] subBits = new int[1 << rootBits];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] <= rootBits) { continue; }
+            int prefix = codes[symbol] >>> (lengths[symbol] - rootBits);
+            subBits[prefix] = Math.max(subBits[prefix], lengths[symbol] - rootBits);
+        }
+
+        int size = 1 << rootBits;
+        for (int bits : subBits) { if (bits > 0) { size += 1 << bits; } }
+        int[] table = new int[size];
+
+        //Link every prefix of long codes to its own table
+        for (int prefix = 0, offset = 1 << rootBits; prefix < subBits.length; prefix++) {
+            if (subBits[prefix] == 0) { continue; }
+            table[prefix] = LINK_FLAG | (offset << 4) | subBits[prefix];
+            offset += 1 << subBits[prefix];
+        }
+
+        //Code fills all entries which start with it, for example code 01 of 3 bit table fills 010 and 011
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int length = lengths[symbol];
+            if (length == 0) { continue; }
+
+            if (length <= rootBits) {
+                int from = codes[symbol] << (rootBits - length);
+                for (int i = from; i < from + (1 << (rootBits - length)); i++) { table[i] = (symbol << 4) | length; }
+            } else {
+                int link = table[codes[symbol] >>> (length - rootBits)];
+                int bits = link & 0xf;
+                int rest = length - rootBits;
+                int from = ((link & ~LINK_FLAG) >>> 4) + ((codes[symbol] & ((1 << rest) - 1)) << (bits - rest));
+                for (int i = from; i < from + (1 << (bits - rest)); i++) { table[i] = (symbol << 4) | rest; }
+            }
+        }
+
+        this.table = table;
+    }
+
+    public int decode(BitReader bitReader) {
+        if (rootBits == 0) { throw new RuntimeException("cannot decode with empty huffman tree"); }
+        int bits = rootBits;
+        int entry = table[(int) bitReader.peekBits(bits)];
+
+        //Code is longer than this table, consume bits of this level and go to next one
+        while (entry < 0) {
+            bitReader.skipBits(bits);
+            bits = entry & 0xf;
+            entry = table[((entry & ~LINK_FLAG) >>> 4) + (int) bitReader.peekBits(bits)];
+        }
+
+        if ((entry & 0xf) == 0) { throw new RuntimeException("invalid huffman code"); }
+        bitReader.skipBits(entry & 0xf);
+        return entry >>> 4;
+    }
+}
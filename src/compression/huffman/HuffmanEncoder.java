@@ -1,129 +1,376 @@
 package compression.huffman;
 
-import compression.BitCarry;
+import compression.BitReader;
+import compression.BitWriter;
+import compression.CompressionMetrics;
+import compression.CompressionType;
+import compression.ProgressTracker;
+import compression.jfr.BlockEvent;
+import compression.jfr.PhaseEvent;
 
-import java.util.*;
-import java.util.function.Consumer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+//Data:  [compressed: 1 bit] and then stored: [raw bytes until the end]
+//                        or compressed: [size: variable length] [block] [block] ... until size bytes are decoded
+//Block: [length: variable length] [type: 2 bits] and then stored: [raw bytes]
+//                                                      new codes: [header] [symbols]
+//                                                     same codes: [symbols] coded with codes of the last block which had them
+//Input is split where byte statistics change, so text and binary parts of the same file get codes which fit them
 
 public class HuffmanEncoder {
-    private static final int MAX_FREQUENCY_BITS_LENGTH = 6; //Frequency is integer, integer max binary length is 32, 32 max binary length is 6
-    private static final int MAX_POSITIVE_INTEGER_LENGTH = 31; //This is max size of positive integer in bits
+    private static final int SYMBOL_BITS = 9; //Header can describe alphabets with up to 512 symbols
+    private static final int CODE_LENGTH_BITS = 4; //Code length is in range [0; 15]
+    private static final int ZERO_RUN_BITS = 4; //In dense header zero length is followed by how many more zeros there are
+    private static final int SEGMENT_SIZE = 1 << 14; //Block boundaries can only be between segments of this size
+    private static final int PARALLEL_SIZE = 1 << 20; //Segments of bigger inputs are counted on common pool
+    private static final int BLOCK_OVERHEAD_BITS = 40; //Rough length, type and header start, used only for estimates
+    private static final int BLOCK_TYPE_BITS = 2;
+    private static final int STORED = 0;
+    private static final int NEW_CODES = 1;
+    private static final int SAME_CODES = 2;
+    private static final double LN_2 = Math.log(2);
+
+    public static byte[] compress(byte[] data) {
+        return compress(data, ProgressTracker.NONE);
+    }
+
+    public static byte[] compress(byte[] data, ProgressTracker tracker) {
+        return compress(data, tracker, new CompressionMetrics());
+    }
 
-    @SafeVarargs
-    public static byte[] compress(byte[] data, Consumer<Float> ...callbacks) {
+    //Metrics are reset and filled with this call, there is no match phase, every byte is a literal
+    public static byte[] compress(byte[] data, ProgressTracker tracker, CompressionMetrics metrics) {
+        long started = System.nanoTime();
+        metrics.reset();
         if (data.length == 0) { return data; }
-        return encodedTree(data, new HuffmanTree(data), callbacks);
+        byte[] output = encode(data, tracker, metrics, started);
+        metrics.addTotalNanos(System.nanoTime() - started);
+        metrics.addLiterals(data.length);
+        metrics.addBytes(data.length, output.length);
+        return output;
     }
 
-    @SafeVarargs
-    public static byte[] decompress(byte[] data, Consumer<Float> ...callbacks) {
+    public static byte[] decompress(byte[] data) {
+        return decompress(data, ProgressTracker.NONE);
+    }
+
+    public static byte[] decompress(byte[] data, ProgressTracker tracker) {
         if (data.length == 0) { return data; }
-        return decodedTree(data, callbacks);
+        return decode(data, tracker);
     }
 
-    @SafeVarargs
-    private static byte[] encodedTree(byte[] data, HuffmanTree huffmanTree, Consumer<Float> ...callbacks) {
-        BitCarry bitCarry = new BitCarry();
-        bitCarry.pushBits(1, 1); // Determine if data is compressed or no (BY DEFAULT YES)
-        bitCarry.pushBits(data.length, MAX_POSITIVE_INTEGER_LENGTH); //We need to know data size so that we don't read final bits, which are not used
-        encodeHeader(bitCarry, huffmanTree); //Encode header, frequency map
+    private static byte[] encode(byte[] data, ProgressTracker tracker, CompressionMetrics metrics, long started) {
+        PhaseEvent buildEvent = PhaseEvent.start(CompressionType.HUFFMAN, PhaseEvent.HUFFMAN_BUILD);
+        List<Block> blocks = split(data);
+        BitWriter headerWriter = new BitWriter(256);
+        HuffmanTree lastTree = null;
+        long size = 1 + BitWriter.getVarLongSize(data.length);
 
-        //Encode data from lookup table
-        for (int i = 0; i < data.length; i++) {
-            HuffmanTree.Node node = huffmanTree.getLookupTable().get(data[i] & 0xff);
-            bitCarry.pushBits(node.getBinary(), node.getBinaryLength());
-            for (Consumer<Float> callback : callbacks) { callback.accept((float) i/data.length*100); }
+        //Every block takes whatever is smaller: its own codes, codes of the last block or raw bytes
+        for (Block block : blocks) {
+            block.choose(lastTree, headerWriter);
+            if (block.type == NEW_CODES) { lastTree = block.tree; }
+            size += block.size;
         }
 
-        //In case if compressed data is bigger than original, there is no point in storing it
-        if (bitCarry.getSize(false) > data.length) {
-            bitCarry.clear();
-            bitCarry.pushBits(0, 1);
-            bitCarry.pushBytes(data);
+        long encodeStarted = System.nanoTime();
+        metrics.addTreeNanos(encodeStarted - started);
+        buildEvent.finish(data.length, (size + 7) / 8);
+
+        //Sizes are known exactly from frequencies, so when compressed data would be bigger than original
+        //(already compressed files), it is stored without encoding it first, otherwise output never has to grow
+        if (size > (long) data.length * 8) {
+            BitWriter bitWriter = new BitWriter(data.length + 1);
+            bitWriter.pushBits(0, 1);
+            bitWriter.pushBytes(data);
+            metrics.addStoredBlock();
+            metrics.addEncodeNanos(System.nanoTime() - encodeStarted);
+            tracker.finish();
+            return bitWriter.getBytes(true);
         }
 
-        return bitCarry.getBytes(true);
+        PhaseEvent encodeEvent = PhaseEvent.start(CompressionType.HUFFMAN, PhaseEvent.HUFFMAN_ENCODE);
+        BitWriter bitWriter = new BitWriter((int) (size / 8) + Long.BYTES);
+        bitWriter.pushBits(1, 1); // Determine if data is compressed or no (BY DEFAULT YES)
+        bitWriter.pushVarLong(data.length); //We need to know data size so that we don't read final bits, which are not used
+
+        for (Block block : blocks) {
+            BlockEvent blockEvent = BlockEvent.start(CompressionType.HUFFMAN, false);
+            long startBits = bitWriter.getSize(true);
+            bitWriter.pushVarLong(block.to - block.from);
+            bitWriter.pushBits(block.type, BLOCK_TYPE_BITS);
+
+            if (block.type == STORED) {
+                bitWriter.pushBytes(data, block.from, block.to - block.from);
+                metrics.addStoredBlock();
+            } else {
+                if (block.type == NEW_CODES) { encodeHeader(bitWriter, block.tree); } //Encode header, code lengths
+                encodeSymbols(bitWriter, data, block.from, block.to, block.tree);
+                metrics.addHuffmanBlock();
+            }
+
+            blockEvent.finish(block.getEventType(), block.to - block.from, (bitWriter.getSize(true) - startBits + 7) / 8);
+            tracker.update(block.to, data.length);
+        }
+
+        metrics.addEncodeNanos(System.nanoTime() - encodeStarted);
+        encodeEvent.finish(data.length, (bitWriter.getSize(true) + 7) / 8);
+        tracker.finish();
+        return bitWriter.getBytes(true);
+    }
+
+    //Encode data from code table
+    private static void encodeSymbols(BitWriter bitWriter, byte[] data, int from, int to, HuffmanTree huffmanTree) {
+        int[] codes = huffmanTree.getCodes();
+        int[] lengths = huffmanTree.getLengths();
+        for (int i = from; i < to; i++) { bitWriter.pushBits(codes[data[i] & 0xff], lengths[data[i] & 0xff]); }
     }
 
-    @SafeVarargs
-    private static byte[] decodedTree(byte[] data, Consumer<Float> ...callbacks) {
-        BitCarry bitCarry = new BitCarry(data);
-        boolean compressed = bitCarry.getBits(1) == 1;
-        ArrayList<Byte> output = new ArrayList<>();
+    //Segments are added to current block while coding them together is estimated to be cheaper than starting
+    //a new block, estimate is entropy of frequencies and rough header size, which is much cheaper than building trees
+    private static List<Block> split(byte[] data) {
+        int segments = (data.length + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        int[][] histograms = new int[segments][];
+        IntFunction<int[]> counter = i -> HuffmanTree.countFrequencies(data, i * SEGMENT_SIZE, Math.min((i + 1) * SEGMENT_SIZE, data.length));
+        if (data.length >= PARALLEL_SIZE) { Arrays.parallelSetAll(histograms, counter); } else { Arrays.setAll(histograms, counter); }
+
+        List<Block> blocks = new ArrayList<>();
+        Block block = new Block(0, histograms[0]);
+        double blockSize = estimateSize(histograms[0]);
+        int[] merged = new int[HuffmanTree.BYTE_SYMBOLS];
 
-        if (compressed) {
-            int size = (int) bitCarry.getBits(MAX_POSITIVE_INTEGER_LENGTH); //Get size of decoded file
-            HuffmanTree huffman = decodeHeader(bitCarry);
-            HuffmanTree.Node node = huffman.getRoot();
+        for (int i = 1; i < segments; i++) {
+            for (int symbol = 0; symbol < merged.length; symbol++) { merged[symbol] = block.frequencies[symbol] + histograms[i][symbol]; }
+            double segmentSize = estimateSize(histograms[i]);
+            double mergedSize = estimateSize(merged);
 
-            //Get bit by bit and navigate trough nodes to get back data until we reach file size
-            while (output.size() < size) {
-                byte binary = (byte) bitCarry.getBits(1); //Yes, this is not very efficient way, but I kinda don't care
-                node = (binary == 0) ? node.getLeftNode() : node.getRightNode(); //Depending on bit we go left or right
-                if (!node.isLeaf()) { continue; } //If node is a leaf, then we reached the end and should add data from it to buffer
-                output.add((byte) node.getCharacter()); //Add node's character to buffer
-                for (Consumer<Float> callback : callbacks) { callback.accept((float) output.size()/size*100); } //Just a simple progress callback
-                node = huffman.getRoot(); //After adding character we need to go back to root and start over
+            if (mergedSize <= blockSize + segmentSize) {
+                int[] frequencies = block.frequencies;
+                block.frequencies = merged;
+                merged = frequencies;
+                blockSize = mergedSize;
+            } else {
+                block.to = i * SEGMENT_SIZE;
+                blocks.add(block);
+                block = new Block(i * SEGMENT_SIZE, histograms[i]);
+                blockSize = segmentSize;
             }
-        } else {
-            while (bitCarry.availableSize(false) > 0) {
-                output.add((byte) bitCarry.getBits(8, true, true));
-                long done = data.length - bitCarry.availableSize(false); //Calculate how many bytes we processed
-                for (Consumer<Float> callback : callbacks) { callback.accept((float) done/data.length*100); }
+        }
+
+        block.to = data.length;
+        blocks.add(block);
+        return blocks;
+    }
+
+    //Bits which block would take with ideal codes: total * log2(total) - sum of f * log2(f), plus header
+    private static double estimateSize(int[] frequencies) {
+        long total = 0;
+        double sum = 0;
+        int symbols = 0;
+
+        for (int frequency : frequencies) {
+            if (frequency == 0) { continue; }
+            total += frequency;
+            sum += frequency * Math.log(frequency);
+            symbols++;
+        }
+
+        if (total == 0) { return 0; }
+        return (total * Math.log(total) - sum) / LN_2 + BLOCK_OVERHEAD_BITS + (long) symbols * CODE_LENGTH_BITS;
+    }
+
+    //Size in bits of encoded data without header, when some symbol has no code tree can't be used and it is Long.MAX_VALUE
+    private static long getDataSize(int[] frequencies, HuffmanTree huffmanTree) {
+        int[] lengths = huffmanTree.getLengths();
+        long size = 0;
+
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] == 0) { continue; }
+            if ((symbol >= lengths.length) || (lengths[symbol] == 0)) { return Long.MAX_VALUE; }
+            size += (long) frequencies[symbol] * lengths[symbol];
+        }
+
+        return size;
+    }
+
+    private static byte[] decode(byte[] data, ProgressTracker tracker) {
+        BitReader bitReader = new BitReader(data);
+        boolean compressed = bitReader.getBits(1) == 1;
+
+        //Raw data takes all remaining whole bytes, so its size is known without header
+        if (!compressed) {
+            byte[] output = new byte[(int) bitReader.availableSize(false)];
+            bitReader.getBytes(output, 0, output.length);
+            tracker.finish();
+            return output;
+        }
+
+        long size = bitReader.getVarLong(); //Get size of decoded file
+        if (size > CompressionType.MAX_DATA_SIZE) { throw new RuntimeException("huffman data is too big: " + size); }
+        byte[] output = new byte[(int) size];
+        HuffmanDecoder huffmanDecoder = null;
+
+        for (int position = 0; position < output.length;) {
+            if (bitReader.availableSize(true) <= 0) { throw new RuntimeException("unexpected end of huffman data"); }
+            long length = bitReader.getVarLong();
+            if ((length <= 0) || (length > output.length - position)) { throw new RuntimeException("invalid huffman block length: " + length); }
+            int type = (int) bitReader.getBits(BLOCK_TYPE_BITS);
+            int end = position + (int) length;
+
+            if (type == STORED) {
+                bitReader.getBytes(output, position, end - position);
+            } else {
+                if (type == NEW_CODES) { huffmanDecoder = new HuffmanDecoder(decodeHeader(bitReader)); }
+                if ((type > SAME_CODES) || (huffmanDecoder == null)) { throw new RuntimeException("invalid huffman block type: " + type); }
+
+                //Every symbol is resolved from decode table with single peek, until we reach end of block
+                for (int i = position; i < end; i++) { output[i] = (byte) huffmanDecoder.decode(bitReader); }
             }
+
+            position = end;
+            tracker.update(position, output.length);
         }
 
-        return BitCarry.copyBytes(output);
+        tracker.finish();
+        return output;
     }
 
-    public static HuffmanTree encodeHeader(BitCarry bitCarry, HuffmanTree huffman) {
-        boolean empty = huffman.getFrequencies().isEmpty();
-        bitCarry.pushBits(empty ? 0b1 : 0b0, 1);
+    //Header stores only code lengths, codes are canonical so decoder can rebuild them
+    //[empty: 1] [last symbol: 9] [dense: 1] and then one of two layouts, whichever is smaller:
+    //Sparse: [symbol count - 1: symbol bits] and for every used symbol [symbol: symbol bits] [length: 4]
+    //Dense:  [length: 4] for every symbol up to last one, zero length is followed by [more zeros: 4]
+    public static HuffmanTree encodeHeader(BitWriter bitWriter, HuffmanTree huffman) {
+        boolean empty = huffman.isEmpty();
+        bitWriter.pushBits(empty ? 0b1 : 0b0, 1);
         if (empty) { return huffman; }
 
-        int max_frequency = Collections.max(huffman.getFrequencies().values()); //Get max frequency, we will use it to know how many bits to use for it
-        int max_frequency_bits = Integer.toBinaryString(max_frequency).length(); //Get length of max frequency
-        int max_value = Collections.max(huffman.getFrequencies().keySet()); //Get max value, we will use it to know how many bits to use for it
-        int max_value_bits = Integer.toBinaryString(max_value).length(); //Get length in bits of max value
-        int size = huffman.getFrequencies().size() - 1; //This cannot be more than 256, and since byte is [0, 255] and size cannot be 0, therefore -1
-        int size_bits = Integer.toBinaryString(size).length(); //Get size in bits for amount of elements count
+        int[] lengths = huffman.getLengths();
+        int last = lengths.length - 1;
+        while (lengths[last] == 0) { last--; }
+        if (last >= (1 << SYMBOL_BITS)) { throw new RuntimeException("alphabet is too big for huffman header"); }
+
+        int symbolBits = getSymbolBits(last);
+        long sparseSize = symbolBits + (long) huffman.getSymbolCount() * (symbolBits + CODE_LENGTH_BITS);
+        boolean dense = getDenseSize(lengths, last) < sparseSize;
+        bitWriter.pushBits(last, SYMBOL_BITS);
+        bitWriter.pushBits(dense ? 1 : 0, 1);
 
-        //System.out.println("[encodeHeader]: Size: " + size + ", Max Frequency Bits: " + max_frequency_bits + ", Max Value Bits: " + max_value_bits + ", Size Bits: " + size_bits);
+        if (!dense) {
+            bitWriter.pushBits(huffman.getSymbolCount() - 1, symbolBits);
 
-        bitCarry.pushBits(max_frequency_bits, MAX_FREQUENCY_BITS_LENGTH); //Save max frequency size in bits, this will help to reduce space
-        bitCarry.pushBits(max_value_bits, MAX_FREQUENCY_BITS_LENGTH); //Save max amount size in bits, this will help make it universal
-        bitCarry.pushBits(size_bits, MAX_FREQUENCY_BITS_LENGTH); //Save max amount size in bits, this will help make it universal
-        bitCarry.pushBits(size, size_bits); //Save frequency element count, so we know how much to read when decoding
+            for (int symbol = 0; symbol <= last; symbol++) {
+                if (lengths[symbol] == 0) { continue; }
+                bitWriter.pushBits(symbol, symbolBits);
+                bitWriter.pushBits(lengths[symbol], CODE_LENGTH_BITS);
+            }
 
-        //Save frequencies to bit carry
-        for (Map.Entry<Integer, Integer> entry : huffman.getFrequencies().entrySet()) {
-            bitCarry.pushBits(entry.getKey(), max_value_bits);
-            bitCarry.pushBits(entry.getValue(), max_frequency_bits);
+            return huffman;
+        }
+
+        for (int symbol = 0; symbol <= last;) {
+            bitWriter.pushBits(lengths[symbol], CODE_LENGTH_BITS);
+            if (lengths[symbol++] != 0) { continue; }
+
+            int run = 0; //Zeros after this one
+            while ((symbol <= last) && (lengths[symbol] == 0) && (run < (1 << ZERO_RUN_BITS) - 1)) { run++; symbol++; }
+            bitWriter.pushBits(run, ZERO_RUN_BITS);
         }
 
         return huffman;
     }
 
-    public static HuffmanTree decodeHeader(BitCarry bitCarry) {
-        boolean empty = bitCarry.getBits(1) == 1;
-        if (empty) { return new HuffmanTree(new HashMap<>()); }
+    public static HuffmanTree decodeHeader(BitReader bitReader) {
+        boolean empty = bitReader.getBits(1) == 1;
+        if (empty) { return HuffmanTree.fromLengths(new int[0]); }
 
-        int max_frequency_bits = (int) bitCarry.getBits(MAX_FREQUENCY_BITS_LENGTH); //Get info, how much space does frequency take
-        int max_value_bits = (int) bitCarry.getBits(MAX_FREQUENCY_BITS_LENGTH); //Get info, how much space does size take
-        int size_bits = (int) bitCarry.getBits(MAX_FREQUENCY_BITS_LENGTH); //Get info, how much space does size take
-        int size = (int) (bitCarry.getBits(size_bits) + 1); //Then get info, how many frequencies we have
-        HashMap<Integer, Integer> frequencies = new HashMap<>(); //Make hash map to load frequencies
+        int last = (int) bitReader.getBits(SYMBOL_BITS);
+        boolean dense = bitReader.getBits(1) == 1;
+        int[] lengths = new int[last + 1];
 
-        //System.out.println("[decodeHeader]: Size: " + size + ", Max Frequency Bits: " + max_frequency_bits + ", Max Value Bits: " + max_value_bits + ", Size Bits: " + size_bits);
+        if (!dense) {
+            int symbolBits = getSymbolBits(last);
+            int count = (int) bitReader.getBits(symbolBits) + 1;
 
-        //Load frequencies into hashmap
-        for (int i = 0; i < size; i++) {
-            int character = (int) bitCarry.getBits(max_value_bits);
-            int frequency = (int) bitCarry.getBits(max_frequency_bits);
-            frequencies.put(character, frequency);
+            for (int i = 0; i < count; i++) {
+                int symbol = (int) bitReader.getBits(symbolBits);
+                if (symbol > last) { throw new RuntimeException("invalid huffman header"); }
+                lengths[symbol] = (int) bitReader.getBits(CODE_LENGTH_BITS);
+            }
+        } else {
+            for (int symbol = 0; symbol <= last;) {
+                int length = (int) bitReader.getBits(CODE_LENGTH_BITS);
+                lengths[symbol++] = length;
+                if (length == 0) { symbol += (int) bitReader.getBits(ZERO_RUN_BITS); } //Array is already filled with zeros
+            }
         }
 
-        //Build huffman tree from frequencies
-        return new HuffmanTree(frequencies);
+        //Build canonical codes from lengths
+        return HuffmanTree.fromLengths(lengths);
+    }
+
+    private static int getSymbolBits(int last) {
+        return Math.max(Integer.SIZE - Integer.numberOfLeadingZeros(last), 1);
+    }
+
+    private static long getDenseSize(int[] lengths, int last) {
+        long size = 0;
+
+        for (int symbol = 0; symbol <= last;) {
+            size += CODE_LENGTH_BITS;
+            if (lengths[symbol++] != 0) { continue; }
+
+            size += ZERO_RUN_BITS;
+            for (int run = 0; (symbol <= last) && (lengths[symbol] == 0) && (run < (1 << ZERO_RUN_BITS) - 1); run++) { symbol++; }
+        }
+
+        return size;
+    }
+
+    //Part of input with its byte frequencies, and the cheapest way to write it, which choose() finds
+    private static class Block {
+        private final int from;
+        private int to;
+        private int[] frequencies;
+        private int type;
+        private HuffmanTree tree; //Codes which symbols are written with, own or of the last block
+        private long size; //In bits, with length and type
+
+        private Block(int from, int[] frequencies) {
+            this.from = from;
+            this.frequencies = frequencies;
+        }
+
+        //Header is written to scratch writer only to know its exact size
+        private void choose(HuffmanTree lastTree, BitWriter headerWriter) {
+            HuffmanTree ownTree = new HuffmanTree(frequencies);
+            headerWriter.clear();
+            encodeHeader(headerWriter, ownTree);
+            long ownSize = headerWriter.getSize(true) + getDataSize(frequencies, ownTree);
+            long sameSize = (lastTree == null) ? Long.MAX_VALUE : getDataSize(frequencies, lastTree);
+            long storedSize = (long) (to - from) * 8;
+
+            if ((sameSize <= ownSize) && (sameSize <= storedSize)) {
+                type = SAME_CODES;
+                tree = lastTree;
+            } else if (ownSize <= storedSize) {
+                type = NEW_CODES;
+                tree = ownTree;
+            } else {
+                type = STORED;
+            }
+
+            size = BitWriter.getVarLongSize(to - from) + BLOCK_TYPE_BITS + Math.min(Math.min(ownSize, sameSize), storedSize);
+        }
+
+        private String getEventType() {
+            return switch (type) {
+                case NEW_CODES -> BlockEvent.HUFFMAN;
+                case SAME_CODES -> BlockEvent.REUSED;
+                default -> BlockEvent.STORED;
+            };
+        }
     }
 }
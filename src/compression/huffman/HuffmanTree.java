@@ -1,149 +1,284 @@
 package compression.huffman;
 
-import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 //https://youtu.be/zSsTG3Flo-I
+//Tree is only used to find out how long the code of every symbol should be, codes themselves are canonical:
+//shorter codes come first and codes of the same length are given in symbol order, so code lengths are enough
+//to rebuild all codes, and that is the only thing header has to store. Codes are never longer than MAX_CODE_LENGTH
 
 public class HuffmanTree {
-    private HashMap<Integer, Integer> frequencies = new HashMap<>();
-    private final HashMap<Integer, Node> lookupTable = new HashMap<>();
-    private Node root = null;
+    public static final int MAX_CODE_LENGTH = 15;
+    public static final int BYTE_SYMBOLS = 256;
+    private static final int PARALLEL_COUNT_SIZE = 1 << 20; //Smaller inputs are counted faster by one thread than split
+    private static final int COUNT_CHUNK_SIZE = 1 << 18;
+    private static final int KEY_SYMBOL_BITS = 20; //Low bits of node key are its smallest symbol, high bits are frequency
+    private static final long KEY_SYMBOL_MASK = (1L << KEY_SYMBOL_BITS) - 1;
+    private final int[] frequencies;
+    private final int[] lengths;
+    private final int[] codes;
+    private final int symbolCount; //How many symbols have a code
 
     public HuffmanTree(byte[] data) {
-        createFrequencyMap(data);
-        buildHuffmanTree(frequencies);
-        buildLookupTable(root, "");
+        this(countFrequencies(data));
     }
 
-    public HuffmanTree(HashMap<Integer, Integer> frequencies) {
-        this.frequencies = frequencies;
-        if (!frequencies.isEmpty()) { buildHuffmanTree(frequencies); }
-        if (!frequencies.isEmpty()) { buildLookupTable(root, ""); }
+    public HuffmanTree(int[] frequencies) {
+        this(frequencies, MAX_CODE_LENGTH);
     }
 
-    public HashMap<Integer, Node> getLookupTable() {
-        return lookupTable;
+    public HuffmanTree(int[] frequencies, int maxLength) {
+        if ((maxLength < 1) || (maxLength > MAX_CODE_LENGTH)) { throw new RuntimeException(String.format("max code length must be in range [1; %d]", MAX_CODE_LENGTH)); }
+        this.frequencies = frequencies;
+        this.lengths = buildLengths(frequencies, maxLength);
+        this.codes = buildCodes(lengths);
+        this.symbolCount = countSymbols(lengths);
     }
 
-    public HashMap<Integer, Integer> getFrequencies() {
-        return frequencies;
+    private HuffmanTree(int[] lengths, int[] codes) {
+        this.frequencies = null;
+        this.lengths = lengths;
+        this.codes = codes;
+        this.symbolCount = countSymbols(lengths);
     }
 
-    public Node getRoot() {
-        return root;
+    //Used by decoder, code lengths are read from header, and they must make a valid prefix code
+    public static HuffmanTree fromLengths(int[] lengths) {
+        long kraft = 0; //Sum of 2^-length, scaled by 2^MAX_CODE_LENGTH, can't be more than 1
+
+        for (int length : lengths) {
+            if ((length < 0) || (length > MAX_CODE_LENGTH)) { throw new RuntimeException("invalid huffman code length: " + length); }
+            if (length > 0) { kraft += 1L << (MAX_CODE_LENGTH - length); }
+        }
+
+        if (kraft > (1L << MAX_CODE_LENGTH)) { throw new RuntimeException("huffman code lengths are over-subscribed"); }
+        return new HuffmanTree(lengths, buildCodes(lengths));
     }
 
     //Count frequencies of each byte, this will be used in tree building
     //Bytes with most frequencies, go up in tree, so that they have the smallest path
-    //Each path is encoded as binary with 0 (left) and 1 (right)
-    private void createFrequencyMap(byte[] data) {
-        frequencies.clear();
+    //Big inputs are split into chunks which are counted on common pool and then summed
+    public static int[] countFrequencies(byte[] data) {
+        if ((data.length < PARALLEL_COUNT_SIZE) || (ForkJoinPool.getCommonPoolParallelism() < 2)) { return countFrequencies(data, 0, data.length); }
+        return new CountTask(data, 0, data.length).invoke();
+    }
 
-        for (byte b : data) {
-            frequencies.put(b & 0xff, frequencies.getOrDefault(b & 0xff, 0)+1);
+    //Four tables are filled in turns, so a run of the same byte doesn't have to wait for the previous increment
+    //of the same counter to be stored before it can load it again
+    public static int[] countFrequencies(byte[] data, int from, int to) {
+        int[] frequencies = new int[BYTE_SYMBOLS];
+        int[] frequencies1 = new int[BYTE_SYMBOLS];
+        int[] frequencies2 = new int[BYTE_SYMBOLS];
+        int[] frequencies3 = new int[BYTE_SYMBOLS];
+        int i = from;
+
+        for (; i + 3 < to; i += 4) {
+            frequencies[data[i] & 0xff]++;
+            frequencies1[data[i + 1] & 0xff]++;
+            frequencies2[data[i + 2] & 0xff]++;
+            frequencies3[data[i + 3] & 0xff]++;
         }
+
+        for (; i < to; i++) { frequencies[data[i] & 0xff]++; }
+        for (int symbol = 0; symbol < BYTE_SYMBOLS; symbol++) { frequencies[symbol] += frequencies1[symbol] + frequencies2[symbol] + frequencies3[symbol]; }
+        return frequencies;
     }
 
-    //Here we build the tree using frequencies
+    //Here we build the tree using frequencies, but we only keep depth of every leaf
     //https://upload.wikimedia.org/wikipedia/commons/d/d8/HuffmanCodeAlg.png
-    private void buildHuffmanTree(HashMap<Integer, Integer> frequencies) {
-        PriorityQueue<Node> queue = new PriorityQueue<>();
+    //Tree is kept in flat arrays: node is known by the smallest symbol below it, so (frequency, symbol) packed in
+    //one long is both its unique key in heap and the order of merging, leaves are nodes 0..symbols-1, inner nodes
+    //come after them in the order they are created, and every node remembers only its parent
+    private static int[] buildLengths(int[] frequencies, int maxLength) {
+        int symbols = frequencies.length;
+        int[] lengths = new int[symbols];
+        long[] heap = new long[symbols];
+        int size = 0;
 
-        //Add all frequencies to queue
-        for (Map.Entry<Integer, Integer> entry : frequencies.entrySet()) {
-            queue.add(new Node(entry.getKey(), entry.getValue()));
+        for (int symbol = 0; symbol < symbols; symbol++) {
+            if (frequencies[symbol] > 0) { heap[size++] = getKey(frequencies[symbol], symbol); }
         }
 
-        //This is in case if data is 0 or 1 byte, we need at least 2 or 3 to create tree,
-        //Then we just create empty node, it technically will never be used
-        if (queue.size() == 1) {
-            queue.add(new Node(0, 1));
+        //With 0 or 1 symbol there is no tree, single symbol still needs 1 bit code so that it can be written
+        if (size <= 1) {
+            if (size == 1) { lengths[(int) (heap[0] & KEY_SYMBOL_MASK)] = 1; }
+            return lengths;
         }
 
+        int used = size;
+        int[] parents = new int[symbols + used - 1];
+        int[] nodes = new int[symbols]; //Node which has symbol as its smallest one
+        for (int symbol = 0; symbol < symbols; symbol++) { nodes[symbol] = symbol; }
+        for (int i = size / 2 - 1; i >= 0; i--) { siftDown(heap, size, i); }
+
         //Now we need to combine all nodes together and build a tree, until we have left with 1 node which is root
-        while (queue.size() > 1) {
-            Node left = queue.poll();
-            Node right = queue.poll(); //Merge 2 smallest by frequency nodes and create a new node
-            Node parent = new Node(0, (left.getFrequency() + right.getFrequency()), left, right);
-            queue.add(parent);
-        }
+        //Merge 2 smallest by frequency nodes, second one is replaced by the new node right in place
+        int next = symbols;
+        while (size > 1) {
+            long left = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size, 0);
+            long right = heap[0];
 
-        //Return final root of the tree
-        this.root = queue.poll();
-    }
+            int leftSymbol = (int) (left & KEY_SYMBOL_MASK), rightSymbol = (int) (right & KEY_SYMBOL_MASK);
+            int symbol = Math.min(leftSymbol, rightSymbol);
+            parents[nodes[leftSymbol]] = next;
+            parents[nodes[rightSymbol]] = next;
+            nodes[symbol] = next++;
+            heap[0] = (((left >>> KEY_SYMBOL_BITS) + (right >>> KEY_SYMBOL_BITS)) << KEY_SYMBOL_BITS) | symbol;
+            siftDown(heap, size, 0);
+        }
 
-    //Then after creating a tree we can create lookup table where we associate byte
-    //with its new binary path, this is used to then encode those bytes
-    private void buildLookupTable(Node node, String binary) {
-        if (node.isLeaf()) {
-            lookupTable.put(node.character, node.setBinary(binary));
-        } else {
-            buildLookupTable(node.leftNode, binary + "0");
-            buildLookupTable(node.rightNode, binary + "1");
+        //Parent is always created after its children, so going back from root every parent already has its depth
+        int[] depths = new int[next];
+        for (int node = next - 2; node >= 0; node--) {
+            if ((node < symbols) && (frequencies[node] == 0)) { continue; }
+            depths[node] = depths[parents[node]] + 1;
         }
-    }
 
-    public static class Node implements Comparable<Node> {
-        private long binary;
-        private int binaryLength;
-        private final int character;
-        private final int frequency;
-        private final Node leftNode;
-        private final Node rightNode;
+        int maxDepth = 0;
+        for (int symbol = 0; symbol < symbols; symbol++) { maxDepth = Math.max(maxDepth, depths[symbol]); }
+        int[] lengthCounts = new int[Math.max(maxDepth, maxLength) + 1]; //How many codes there are with every length
+        for (int symbol = 0; symbol < symbols; symbol++) { if (frequencies[symbol] > 0) { lengthCounts[depths[symbol]]++; } }
 
-        public Node(int character, int frequency) {
-            this(character, frequency, null, null);
-        }
+        limitLengths(lengthCounts, maxDepth, maxLength);
 
-        public Node(int character, int frequency, Node leftNode, Node rightNode) {
-            this.character = character;
-            this.frequency = frequency;
-            this.leftNode = leftNode;
-            this.rightNode = rightNode;
+        //Most frequent symbols get the shortest codes, symbols with the same depth and frequency stay in symbol order
+        long[] order = new long[used];
+        for (int symbol = 0, i = 0; symbol < symbols; symbol++) {
+            if (frequencies[symbol] > 0) { order[i++] = ((long) depths[symbol] << 52) | ((long) (Integer.MAX_VALUE - frequencies[symbol]) << KEY_SYMBOL_BITS) | symbol; }
         }
+        Arrays.sort(order);
 
-        public int getFrequency() {
-            return frequency;
+        for (int length = 1, i = 0; length <= maxLength; length++) {
+            for (int end = i + lengthCounts[length]; i < end; i++) { lengths[(int) (order[i] & KEY_SYMBOL_MASK)] = length; }
         }
 
-        public int getCharacter() {
-            return character;
-        }
+        return lengths;
+    }
 
-        public Node getLeftNode() {
-            return leftNode;
-        }
+    private static long getKey(long frequency, int symbol) {
+        return (frequency << KEY_SYMBOL_BITS) | symbol;
+    }
+
+    private static void siftDown(long[] heap, int size, int i) {
+        long key = heap[i];
 
-        public Node getRightNode() {
-            return rightNode;
+        for (int child = 2 * i + 1; child < size; child = 2 * i + 1) {
+            if ((child + 1 < size) && (heap[child + 1] < heap[child])) { child++; }
+            if (key <= heap[child]) { break; }
+            heap[i] = heap[child];
+            i = child;
         }
 
-        public boolean isLeaf() {
-            return (this.leftNode == null) && (this.rightNode == null);
+        heap[i] = key;
+    }
+
+    //JPEG (Annex K.3) way of limiting code length, two codes that are too long are taken, one of them is moved
+    //under its sibling's parent and the other one is put under a shorter leaf, which then becomes a node
+    //Kraft sum stays the same, so codes are still complete, just a bit less optimal than real package-merge
+    private static void limitLengths(int[] lengthCounts, int maxDepth, int maxLength) {
+        for (int length = maxDepth; length > maxLength; length--) {
+            while (lengthCounts[length] > 0) {
+                int shorter = length - 2;
+                while (lengthCounts[shorter] == 0) { shorter--; }
+
+                lengthCounts[length] -= 2;
+                lengthCounts[length - 1]++;
+                lengthCounts[shorter + 1] += 2;
+                lengthCounts[shorter]--;
+            }
         }
+    }
 
-        public Node setBinary(String binary) {
-            this.binary = new BigInteger(binary, 2).longValue();
-            this.binaryLength = binary.length();
-            return this;
+    //Canonical codes, first code of every length is right after last code of previous length, shifted by one bit
+    private static int[] buildCodes(int[] lengths) {
+        int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+        for (int length : lengths) { lengthCounts[length]++; }
+        lengthCounts[0] = 0;
+
+        int[] nextCode = new int[MAX_CODE_LENGTH + 1];
+        for (int length = 1, code = 0; length <= MAX_CODE_LENGTH; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
         }
 
-        public long getBinary() {
-            return binary;
+        int[] codes = new int[lengths.length];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] > 0) { codes[symbol] = nextCode[lengths[symbol]]++; }
         }
 
-        public int getBinaryLength() {
-            return binaryLength;
+        return codes;
+    }
+
+    private static int countSymbols(int[] lengths) {
+        int count = 0;
+        for (int length : lengths) { if (length > 0) { count++; } }
+        return count;
+    }
+
+    public int getCode(int symbol) {
+        return codes[symbol];
+    }
+
+    public int getCodeLength(int symbol) {
+        return lengths[symbol];
+    }
+
+    //Arrays are returned as they are, so that hot loops don't need to call getters, they must not be changed
+    public int[] getCodes() {
+        return codes;
+    }
+
+    public int[] getLengths() {
+        return lengths;
+    }
+
+    //Only known when tree was built from data, tree read from header has only code lengths
+    public int[] getFrequencies() {
+        return frequencies;
+    }
+
+    public int getMaxLength() {
+        int max = 0;
+        for (int length : lengths) { max = Math.max(max, length); }
+        return max;
+    }
+
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    public boolean isEmpty() {
+        return symbolCount == 0;
+    }
+
+    //Counts halves of range on the pool until they are small enough, then sums both tables
+    private static class CountTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+        private final byte[] data;
+        private final int from;
+        private final int to;
+
+        private CountTask(byte[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
         }
 
         @Override
-        public int compareTo(Node node) {
-            //This is the reason why queue returns smallest node
-            int result = Integer.compare(frequency, node.getFrequency());
-            return (result != 0) ? result : Integer.compare(character, node.getCharacter());
+        protected int[] compute() {
+            if (to - from <= COUNT_CHUNK_SIZE) { return countFrequencies(data, from, to); }
+
+            int middle = (from + to) >>> 1;
+            CountTask left = new CountTask(data, from, middle);
+            left.fork();
+            int[] frequencies = new CountTask(data, middle, to).compute();
+            int[] leftFrequencies = left.join();
+            for (int symbol = 0; symbol < BYTE_SYMBOLS; symbol++) { frequencies[symbol] += leftFrequencies[symbol]; }
+            return frequencies;
         }
     }
 }
@@ -0,0 +1,35 @@
+package compression.jfr;
+
+import compression.CompressionType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//One block inside codec, with the way it was coded, sizes are of uncompressed and compressed block
+
+@Name("nzip.Block")
+@Label("Nzip Block")
+public class BlockEvent extends NzipEvent {
+    public static final String HUFFMAN = "Huffman";
+    public static final String PRESET = "Preset Huffman"; //Codes of dictionary, or fixed codes
+    public static final String REUSED = "Reused Huffman"; //Codes of previous block
+    public static final String STORED = "Stored";
+    public static final String SKIPPED = "Skipped"; //Stored right away, because it looked incompressible
+
+    @Label("Block Type")
+    String blockType;
+
+    @Label("Decompression")
+    boolean decompression;
+
+    public static BlockEvent start(CompressionType compressionType, boolean decompression) {
+        BlockEvent event = new BlockEvent();
+        event.decompression = decompression;
+        event.begin(compressionType);
+        return event;
+    }
+
+    public void finish(String blockType, long rawSize, long compressedSize) {
+        this.blockType = blockType;
+        if (decompression) { finish(compressedSize, rawSize, rawSize); } else { finish(rawSize, compressedSize, rawSize); }
+    }
+}
@@ -0,0 +1,25 @@
+package compression.jfr;
+
+import compression.CompressionType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//Whole compression of one input, in framed format that is one block
+
+@Name("nzip.Compress")
+@Label("Nzip Compress")
+public class CompressEvent extends NzipEvent {
+    @Label("Level")
+    int level;
+
+    public static CompressEvent start(CompressionType compressionType, int level) {
+        CompressEvent event = new CompressEvent();
+        event.level = level;
+        event.begin(compressionType);
+        return event;
+    }
+
+    public void finish(long inputSize, long outputSize) {
+        finish(inputSize, outputSize, inputSize);
+    }
+}
@@ -0,0 +1,21 @@
+package compression.jfr;
+
+import compression.CompressionType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//Whole decompression of one input, in framed format that is one block
+
+@Name("nzip.Decompress")
+@Label("Nzip Decompress")
+public class DecompressEvent extends NzipEvent {
+    public static DecompressEvent start(CompressionType compressionType) {
+        DecompressEvent event = new DecompressEvent();
+        event.begin(compressionType);
+        return event;
+    }
+
+    public void finish(long inputSize, long outputSize) {
+        finish(inputSize, outputSize, outputSize);
+    }
+}
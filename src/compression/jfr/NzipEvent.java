@@ -0,0 +1,58 @@
+package compression.jfr;
+
+import compression.CompressionType;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+//Fields which all nzip JFR events have, sizes are in bytes
+//While recording is off begin() is one flag check and finish() one more, fields are filled only when event
+//is really going to be written, so events can stay in hot paths
+
+@Category("Nzip")
+@StackTrace(false)
+public abstract class NzipEvent extends Event {
+    @Label("Codec")
+    String codec;
+
+    @Label("Input Size")
+    @DataAmount
+    long inputSize;
+
+    @Label("Output Size")
+    @DataAmount
+    long outputSize;
+
+    @Label("Throughput")
+    @Description("Uncompressed bytes per second")
+    @DataAmount
+    @Frequency
+    float throughput;
+
+    private transient CompressionType compressionType;
+    private transient long started;
+
+    void begin(CompressionType compressionType) {
+        if (!isEnabled()) { return; }
+        this.compressionType = compressionType;
+        this.started = System.nanoTime();
+        begin();
+    }
+
+    //Raw size is the uncompressed side, which throughput is counted from
+    void finish(long inputSize, long outputSize, long rawSize) {
+        if (compressionType == null) { return; }
+        end();
+        if (!shouldCommit()) { return; }
+
+        this.codec = compressionType.getName();
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.throughput = (float) (rawSize * 1e9 / Math.max(System.nanoTime() - started, 1));
+        commit();
+    }
+}
@@ -0,0 +1,32 @@
+package compression.jfr;
+
+import compression.CompressionType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//One phase of codec or stream work, input size is how many bytes the phase went through
+//Parse has no output in bytes, it only produces tokens, so its output size is 0
+
+@Name("nzip.Phase")
+@Label("Nzip Phase")
+public class PhaseEvent extends NzipEvent {
+    public static final String PARSE = "LZ77 Parse";
+    public static final String HUFFMAN_BUILD = "Huffman Build";
+    public static final String HUFFMAN_ENCODE = "Huffman Encode";
+    public static final String READ = "Read";
+    public static final String WRITE = "Write";
+
+    @Label("Phase")
+    String phase;
+
+    public static PhaseEvent start(CompressionType compressionType, String phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.begin(compressionType);
+        return event;
+    }
+
+    public void finish(long inputSize, long outputSize) {
+        finish(inputSize, outputSize, inputSize);
+    }
+}
@@ -0,0 +1,127 @@
+package compression.lz77;
+
+import java.util.Arrays;
+
+//Same job as SuffixArray, but without strings, boxing and lists
+//Every position is hashed by its first "suffixLength" bytes, head[hash] keeps the last position with that hash
+//and prev[position & WINDOW_MASK] keeps the position before it with the same hash, so following prev gives
+//all earlier positions with the same hash from the closest to the farthest, until we go out of search buffer
+//Tables are sized by buffer, small inputs don't pay for clearing 64K heads, and reset() lets the same chain (and its
+//tables) be used for the next buffer, tables only grow when bigger buffer comes
+
+public class HashChain {
+    private static final int HASH_BITS = 16;
+    private static final int MIN_HASH_BITS = 8;
+    private static final int HASH_MULTIPLIER = 0x9E3779B1; //Golden ratio, spreads bits of key over whole hash
+    private static final int WINDOW_BITS = 17; //Must be bigger than search buffer, so prev entries inside it are never overwritten
+    private static final int WINDOW_MASK = (1 << WINDOW_BITS) - 1;
+    public static final int DEFAULT_MAX_CHAIN = 4096; //How many candidates are checked at most for one position
+
+    private int[] head = new int[0];
+    private int[] prev = new int[0];
+    private int hashBits;
+    private int prevMask;
+    private byte[] buffer;
+    private final int lookAheadBufferSize;
+    private final int searchBufferSize;
+    private final int suffixLength;
+    private int maxChain;
+    private int niceLength; //When match is at least this long we stop searching, it is good enough
+    private int nextPos = 0; //Next position which is not inserted in chains yet
+    private long probes = 0; //Candidates compared since reset, for metrics
+
+    public HashChain(byte[] buffer, int lookAheadBufferSize, int searchBufferSize, int suffixLength) {
+        this(buffer, lookAheadBufferSize, searchBufferSize, suffixLength, DEFAULT_MAX_CHAIN, lookAheadBufferSize);
+    }
+
+    public HashChain(byte[] buffer, int lookAheadBufferSize, int searchBufferSize, int suffixLength, int maxChain, int niceLength) {
+        if ((suffixLength < 1) || (suffixLength > 4)) { throw new RuntimeException("suffix length must be in range [1; 4]"); }
+        if (searchBufferSize > WINDOW_MASK) { throw new RuntimeException(String.format("search buffer must be less than %d", WINDOW_MASK)); }
+        this.lookAheadBufferSize = lookAheadBufferSize;
+        this.searchBufferSize = searchBufferSize;
+        this.suffixLength = suffixLength;
+        reset(buffer, maxChain, niceLength);
+    }
+
+    //Start over with new buffer, prev entries don't need clearing, every entry is written before it is read
+    public void reset(byte[] buffer, int maxChain, int niceLength) {
+        this.buffer = buffer;
+        this.maxChain = maxChain;
+        this.niceLength = Math.min(niceLength, lookAheadBufferSize);
+        this.hashBits = Math.max(MIN_HASH_BITS, Math.min(HASH_BITS, Integer.SIZE - Integer.numberOfLeadingZeros(buffer.length)));
+        this.nextPos = 0;
+        this.probes = 0;
+
+        //When whole buffer fits in prev, positions never wrap, otherwise prev must be bigger than search buffer
+        int prevSize = (buffer.length <= (1 << WINDOW_BITS)) ? (Integer.highestOneBit(Math.max(buffer.length - 1, 1)) << 1) : (1 << WINDOW_BITS);
+        if (prev.length < prevSize) { prev = new int[prevSize]; }
+        if (head.length < (1 << hashBits)) { head = new int[1 << hashBits]; }
+        prevMask = prev.length - 1;
+        Arrays.fill(head, 0, 1 << hashBits, -1);
+    }
+
+    //Forget buffer, so it can be garbage collected while tables are kept for later
+    public void clear() {
+        buffer = null;
+        nextPos = 0;
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    private int hash(int position) {
+        int key = 0;
+        for (int i = 0; i < suffixLength; i++) { key = (key << 8) | (buffer[position + i] & 0xff); }
+        return (key * HASH_MULTIPLIER) >>> (Integer.SIZE - hashBits);
+    }
+
+    //Insert all positions before "position" into chains, positions too close to the end can't be hashed
+    private void insert(int position) {
+        int to = Math.min(position, buffer.length - suffixLength + 1);
+
+        for (int i = nextPos; i < to; i++) {
+            int hash = hash(i);
+            prev[i & prevMask] = head[hash];
+            head[hash] = i;
+        }
+
+        nextPos = Math.max(nextPos, to);
+    }
+
+    //Returns { length, offset } of the longest match, where offset is position in buffer, or { -1, -1 } if there is none
+    //Match can go outside current position (cycling data), decoder copies it byte by byte so that is fine
+    public int[] nextLongestMatch(int position) {
+        insert(position);
+        if (position + suffixLength > buffer.length) { return new int[] { -1, -1 }; }
+
+        int maxLength = Math.min(lookAheadBufferSize, buffer.length - position);
+        int niceLength = Math.min(this.niceLength, maxLength);
+        int bestLength = suffixLength - 1;
+        int bestOffset = -1;
+        int candidate = head[hash(position)];
+
+        for (int chain = maxChain; (candidate >= 0) && (chain > 0); chain--) {
+            if (position - candidate >= searchBufferSize) { break; } //Everything further in chain is even older
+            if (candidate >= position) { candidate = prev[candidate & prevMask]; continue; } //Possible if position was looked at before, after later one
+
+            probes++;
+
+            //First check byte which would make match longer than best one, most candidates fail right there
+            if (buffer[candidate + bestLength] == buffer[position + bestLength]) {
+                int length = 0;
+                while ((length < maxLength) && (buffer[candidate + length] == buffer[position + length])) { length++; }
+
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestOffset = candidate;
+                    if (length >= niceLength) { break; } //Can't get any better than this, or it is already good enough
+                }
+            }
+
+            candidate = prev[candidate & prevMask];
+        }
+
+        return (bestOffset > -1) ? new int[] { bestLength, bestOffset } : new int[] { -1, -1 };
+    }
+}
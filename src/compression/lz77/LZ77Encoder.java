@@ -1,18 +1,48 @@
 package compression.lz77;
 
+import compression.ProgressTracker;
 import compression.lz77.versions.LZ77EncoderV1;
 import compression.lz77.versions.LZ77EncoderV2;
 
-import java.util.function.Consumer;
+import java.util.Arrays;
 
 public class LZ77Encoder {
-    @SafeVarargs
-    public static byte[] compress(byte[] data, Consumer<Float>... callbacks) {
-        return LZ77EncoderV2.compress(data, callbacks);
+    public static byte[] compress(byte[] data) {
+        return LZ77EncoderV2.compress(data);
     }
 
-    @SafeVarargs
-    public static byte[] decompress(byte[] data, Consumer<Float>... callbacks) {
-        return LZ77EncoderV2.decompress(data, callbacks);
+    public static byte[] compress(byte[] data, int level, ProgressTracker tracker) {
+        return LZ77EncoderV2.compress(data, level, tracker);
+    }
+
+    public static byte[] compress(byte[] data, int level, ProgressTracker tracker, LZ77EncoderV2.Context context) {
+        return LZ77EncoderV2.compress(data, level, tracker, context);
+    }
+
+    public static byte[] decompress(byte[] data) {
+        return LZ77EncoderV2.decompress(data);
+    }
+
+    public static byte[] decompress(byte[] data, ProgressTracker tracker) {
+        return LZ77EncoderV2.decompress(data, tracker);
+    }
+
+    //Copies match of "length" bytes from "distance" bytes back, caller checks that both are inside output
+    //When match overlaps with itself it repeats last "distance" bytes, so every copy can take everything
+    //which is already repeated, and copied part doubles each time instead of going byte by byte
+    public static void copyMatch(byte[] output, int position, int distance, int length) {
+        int from = position - distance;
+
+        if (distance >= length) {
+            System.arraycopy(output, from, output, position, length);
+        } else if (distance == 1) {
+            Arrays.fill(output, position, position + length, output[from]);
+        } else {
+            for (int done = 0; done < length;) {
+                int size = Math.min(distance + done, length - done);
+                System.arraycopy(output, from, output, position + done, size);
+                done += size;
+            }
+        }
     }
 }
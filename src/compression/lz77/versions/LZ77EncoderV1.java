@@ -1,11 +1,12 @@
 package compression.lz77.versions;
 
-import compression.BitCarry;
+import compression.BitReader;
+import compression.BitWriter;
+import compression.CompressionType;
+import compression.ProgressTracker;
+import compression.lz77.LZ77Encoder;
 import compression.lz77.SuffixArray;
 
-import java.util.ArrayList;
-import java.util.function.Consumer;
-
 public class LZ77EncoderV1 {
     private static final int REFERENCE_LENGTH_SIZE = 8; //Size in bits to encode length
     private static final int REFERENCE_SMALL_LENGTH_SIZE = 4; //Size in bits to encode small length
@@ -24,12 +25,16 @@ public class LZ77EncoderV1 {
     private static final int MIN_DATA_DISTANCE = 1;
     private static final int SEARCH_BUFFER_SIZE = (1 << REFERENCE_DISTANCE_SIZE) + MIN_DATA_DISTANCE; //[0; 65535] which is 2 bytes used in encoding
 
-    @SafeVarargs
-    public static byte[] compress(byte[] data, Consumer<Float>... callbacks) {
+    public static byte[] compress(byte[] data) {
+        return compress(data, ProgressTracker.NONE);
+    }
+
+    public static byte[] compress(byte[] data, ProgressTracker tracker) {
         if (data.length == 0) { return data; }
         SuffixArray suffixArray = new SuffixArray(data, LOOK_AHEAD_BUFFER_SIZE, SEARCH_BUFFER_SIZE, MIN_DATA_LENGTH);
-        BitCarry bitCarry = new BitCarry(); //Used to easily add data with ref bit
-        bitCarry.pushBits(1, 1); // Determine if data is compressed or no
+        BitWriter bitWriter = new BitWriter(); //Used to easily add data with ref bit
+        bitWriter.pushBits(1, 1); // Determine if data is compressed or no
+        bitWriter.pushVarLong(data.length); //Size of decompressed data, so that decoder can allocate it at once
         int position = 0;
 
         while (position < data.length - MIN_DATA_LENGTH) {
@@ -43,93 +48,96 @@ public class LZ77EncoderV1 {
                 int ref_length = length - MIN_DATA_LENGTH;
                 boolean arg0 = (ref_length > ((1 << REFERENCE_SMALL_LENGTH_SIZE) - 1));
                 boolean arg1 = (distance > ((1 << REFERENCE_SMALL_DISTANCE_SIZE) - 1));
-                bitCarry.pushBits(0b10, 2); //This determines if next data encoded reference
-                bitCarry.pushBits(arg0 ? 1 : 0, 1);
-                bitCarry.pushBits(ref_length, arg0 ? REFERENCE_LENGTH_SIZE : REFERENCE_SMALL_LENGTH_SIZE);
-                bitCarry.pushBits(arg1 ? 1 : 0, 1);
-                bitCarry.pushBits(distance, arg1 ? REFERENCE_DISTANCE_SIZE : REFERENCE_SMALL_DISTANCE_SIZE);
+                bitWriter.pushBits(0b10, 2); //This determines if next data encoded reference
+                bitWriter.pushBits(arg0 ? 1 : 0, 1);
+                bitWriter.pushBits(ref_length, arg0 ? REFERENCE_LENGTH_SIZE : REFERENCE_SMALL_LENGTH_SIZE);
+                bitWriter.pushBits(arg1 ? 1 : 0, 1);
+                bitWriter.pushBits(distance, arg1 ? REFERENCE_DISTANCE_SIZE : REFERENCE_SMALL_DISTANCE_SIZE);
                 position += length;
             } else {
                 //If length less than tree, then push byte as normal
                 boolean b1 = isLeadingOne(data[position], 8);
-                if (b1) { bitCarry.pushBits(1, 1); }  //This determines if next data is raw data that starts with 1 bit
-                bitCarry.pushBits(data[position], 8);
+                if (b1) { bitWriter.pushBits(1, 1); }  //This determines if next data is raw data that starts with 1 bit
+                bitWriter.pushBits(data[position], 8);
                 position++;
             }
 
-            for (Consumer<Float> callback : callbacks) { callback.accept((float) position/data.length*100); }
+            tracker.update(position, data.length);
         }
 
         //Write remaining bytes as raw data
         for (int i = position; i < data.length; i++) {
             boolean b1 = isLeadingOne(data[i], 8);
-            if (b1) { bitCarry.pushBits(1, 1); }
-            bitCarry.pushBits(data[i], 8);
+            if (b1) { bitWriter.pushBits(1, 1); }
+            bitWriter.pushBits(data[i], 8);
         }
 
         //In case if compressed data is bigger than original, there is no point in storing it
-        if (bitCarry.getSize(false) > data.length) {
-            bitCarry.clear();
-            bitCarry.pushBits(0, 1);
-            bitCarry.pushBytes(data);
+        if (bitWriter.getSize(false) > data.length) {
+            bitWriter.clear();
+            bitWriter.pushBits(0, 1);
+            bitWriter.pushBytes(data);
         }
 
-        for (Consumer<Float> callback : callbacks) { callback.accept(100f); }
-        return bitCarry.getBytes(true);
+        tracker.finish();
+        return bitWriter.getBytes(true);
     }
 
-    @SafeVarargs
-    public static byte[] decompress(byte[] data, Consumer<Float>... callbacks) {
-        if (data.length == 0) { return data; }
-        BitCarry bitCarry = new BitCarry(data);
-        boolean compressed = bitCarry.getBits(1) == 1;
-        ArrayList<Byte> output = new ArrayList<>();
-        int position = 0;
+    public static byte[] decompress(byte[] data) {
+        return decompress(data, ProgressTracker.NONE);
+    }
 
-        while (!compressed && (bitCarry.availableSize(false) > 0)) {
-            output.add((byte) bitCarry.getBits(8, true, true));
-            long done = data.length - bitCarry.availableSize(false); //Calculate how many bytes we processed
-            for (Consumer<Float> callback : callbacks) { callback.accept((float) done/data.length*100); }
+    public static byte[] decompress(byte[] data, ProgressTracker tracker) {
+        if (data.length == 0) { return data; }
+        BitReader bitReader = new BitReader(data);
+        boolean compressed = bitReader.getBits(1) == 1;
+
+        //Raw data takes all remaining whole bytes, so its size is known without header
+        if (!compressed) {
+            byte[] output = new byte[(int) bitReader.availableSize(false)];
+            bitReader.getBytes(output, 0, output.length);
+            tracker.finish();
+            return output;
         }
 
-        while (compressed && (bitCarry.availableSize(false) > 0)) {
+        long size = bitReader.getVarLong();
+        if (size > CompressionType.MAX_DATA_SIZE) { throw new RuntimeException("lz77 data is too big: " + size); }
+        byte[] output = new byte[(int) size];
+        int position = 0;
+
+        while (position < output.length) {
             //D: 01110101 -> 01110101
-            if (bitCarry.getBits(1, true, false) == 0) {
-                output.add((byte) bitCarry.getBits(8, true, true));
-                position += 1;
+            if (bitReader.peekBits(1) == 0) {
+                output[position++] = (byte) bitReader.getBits(8);
                 continue;
             }
 
-            bitCarry.getBits(1, true, true); //It is definitely 1, we don't need it
+            bitReader.skipBits(1); //It is definitely 1, we don't need it
 
             //D: 11110101 -> 1 11110101
-            if ((bitCarry.getBits(1, true, false) == 1)) {
-                output.add((byte) bitCarry.getBits(8, true, true));
-                position += 1;
+            if ((bitReader.peekBits(1) == 1)) {
+                output[position++] = (byte) bitReader.getBits(8);
                 continue;
             }
 
-            bitCarry.getBits(1, true, true); //It is definitely 0, we don't need it
+            bitReader.skipBits(1); //It is definitely 0, we don't need it
 
             //R: 01110001 -> 1 0 01110001
             //R: 11110001 -> 1 0 11110001
-            boolean arg0 = bitCarry.getBits(1) == 1; //Check if we have long or short length
-            int length = (int) bitCarry.getBits(arg0 ? REFERENCE_LENGTH_SIZE : REFERENCE_SMALL_LENGTH_SIZE) + MIN_DATA_LENGTH; //Length is encoded as 1 byte and 1 byte is 8 bits
-            boolean arg1 = bitCarry.getBits(1) == 1; //Check if we have long or short distance
-            int distance = (int) bitCarry.getBits(arg1 ? REFERENCE_DISTANCE_SIZE : REFERENCE_SMALL_DISTANCE_SIZE) + MIN_DATA_DISTANCE; //Distance is encoded as 2 byte and 1 byte is 16 bits
-
-            //Copy bytes in loop from past
-            for (int i = 0; i < length; i++) {
-                output.add(output.get((position - distance + i)));
-            }
+            boolean arg0 = bitReader.getBits(1) == 1; //Check if we have long or short length
+            int length = (int) bitReader.getBits(arg0 ? REFERENCE_LENGTH_SIZE : REFERENCE_SMALL_LENGTH_SIZE) + MIN_DATA_LENGTH; //Length is encoded as 1 byte and 1 byte is 8 bits
+            boolean arg1 = bitReader.getBits(1) == 1; //Check if we have long or short distance
+            int distance = (int) bitReader.getBits(arg1 ? REFERENCE_DISTANCE_SIZE : REFERENCE_SMALL_DISTANCE_SIZE) + MIN_DATA_DISTANCE; //Distance is encoded as 2 byte and 1 byte is 16 bits
+
+            if ((distance > position) || (length > output.length - position)) { throw new RuntimeException("invalid reference at position " + position); }
 
+            LZ77Encoder.copyMatch(output, position, distance, length); //Copy bytes from past
             position += length; //Increase position by reference length
-            long done = data.length - bitCarry.availableSize(false); //Calculate how many bytes we processed
-            for (Consumer<Float> callback : callbacks) { callback.accept((float) done/data.length*100); }
+            tracker.update(position, output.length);
         }
 
-        for (Consumer<Float> callback : callbacks) { callback.accept(100f); }
-        return BitCarry.copyBytes(output);
+        tracker.finish();
+        return output;
     }
 
     public static boolean isLeadingOne(long data, int size) {
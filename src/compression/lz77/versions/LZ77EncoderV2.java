@@ -1,12 +1,20 @@
 package compression.lz77.versions;
 
-import compression.BitCarry;
+import compression.BitReader;
+import compression.BitWriter;
+import compression.CompressionLevel;
+import compression.CompressionMetrics;
+import compression.CompressionType;
+import compression.Incompressible;
+import compression.ProgressTracker;
+import compression.huffman.HuffmanDecoder;
 import compression.huffman.HuffmanEncoder;
 import compression.huffman.HuffmanTree;
-import compression.lz77.SuffixArray;
+import compression.jfr.PhaseEvent;
+import compression.lz77.HashChain;
+import compression.lz77.LZ77Encoder;
 
 import java.util.*;
-import java.util.function.Consumer;
 
 public class LZ77EncoderV2 {
     private static final int REFERENCE_LENGTH_SIZE = 8; //Size in bits to encode length
@@ -26,51 +34,114 @@ public class LZ77EncoderV2 {
     private static final int SEARCH_BUFFER_SIZE = (1 << REFERENCE_DISTANCE_SIZE) + MIN_DATA_DISTANCE; //[0; 65535] which is 2 bytes used in encoding
 
     //Return generated huffman tree for frequencies of length of repeating data and also list of references
-    @SafeVarargs
-    private static Map.Entry<HuffmanTree, List<int[]>> generateHeader(BitCarry bitCarry, byte[] data, Consumer<Float>... callbacks) {
-        SuffixArray suffixArray = new SuffixArray(data, LOOK_AHEAD_BUFFER_SIZE, SEARCH_BUFFER_SIZE, MIN_DATA_LENGTH);
+    private static Map.Entry<HuffmanTree, List<int[]>> generateHeader(BitWriter bitWriter, byte[] data, CompressionLevel compressionLevel, ProgressTracker tracker, Context context) {
+        PhaseEvent parseEvent = PhaseEvent.start(CompressionType.LZSS, PhaseEvent.PARSE);
+        HashChain hashChain = context.getHashChain(data, compressionLevel);
         List<int[]> references = new ArrayList<>(); //Store position as of position in buffer and store length as of ref_length
-        HashMap<Integer, Integer> frequencies = new HashMap<>(); //Store frequencies of repeating length values
+        int[] frequencies = new int[LOOK_AHEAD_BUFFER_SIZE - MIN_DATA_LENGTH + 1]; //Store frequencies of repeating length values
+        int lazySteps = compressionLevel.getLazySteps();
+        int[][] matches = new int[lazySteps + 1][]; //Matches for position, position + 1, ... which are already searched
+        int end = data.length - MIN_DATA_LENGTH;
         int position = 0;
 
-        while (position < data.length - MIN_DATA_LENGTH) {
-            int[] reference = suffixArray.nextLongestMatch(position);
+        while (position < end) {
+            if (matches[0] == null) { matches[0] = hashChain.nextLongestMatch(position); }
+            int[] reference = matches[0];
             int length = reference[0]; //Length of repeating data
+            boolean lazy = false;
 
-            if (length >= MIN_DATA_LENGTH) {
+            //Lazy matching, if one of next positions has longer match, which pays for literals before it, then
+            //we write current byte as raw data and take that match later instead
+            for (int step = 1; (step <= lazySteps) && (length >= MIN_DATA_LENGTH) && (length < compressionLevel.getNiceLength()) && (position + step < end); step++) {
+                if (matches[step] == null) { matches[step] = hashChain.nextLongestMatch(position + step); }
+                if (matches[step][0] > length + (step - 1) * 2) { lazy = true; break; }
+            }
+
+            if ((length >= MIN_DATA_LENGTH) && !lazy) {
                 references.add(new int[] { position, length, reference[1] });
                 int ref_length = length - MIN_DATA_LENGTH;
-                frequencies.put(ref_length, frequencies.getOrDefault(ref_length, 0)+1);
+                frequencies[ref_length]++;
                 position += length;
+                Arrays.fill(matches, null);
             } else {
                 position++;
+                System.arraycopy(matches, 1, matches, 0, lazySteps); //Match for next position is now first
+                matches[lazySteps] = null;
             }
 
-            for (Consumer<Float> callback : callbacks) { callback.accept((float) position/data.length*60f); }
+            tracker.update(position, data.length);
         }
 
+        parseEvent.finish(data.length, 0);
+        PhaseEvent buildEvent = PhaseEvent.start(CompressionType.LZSS, PhaseEvent.HUFFMAN_BUILD);
+        long treeStarted = System.nanoTime();
         HuffmanTree huffmanTree = new HuffmanTree(frequencies);
-        HuffmanEncoder.encodeHeader(bitCarry, huffmanTree);
+        HuffmanEncoder.encodeHeader(bitWriter, huffmanTree);
+        context.metrics.addTreeNanos(System.nanoTime() - treeStarted);
+        buildEvent.finish(data.length, (bitWriter.getSize(true) + 7) / 8);
+        context.metrics.addCandidatesProbed(hashChain.getProbes());
         return Map.entry(huffmanTree, references);
     }
 
-    @SafeVarargs
-    public static byte[] compress(byte[] data, Consumer<Float>... callbacks) {
+    public static byte[] compress(byte[] data) {
+        return compress(data, CompressionLevel.DEFAULT_LEVEL, ProgressTracker.NONE);
+    }
+
+    public static byte[] compress(byte[] data, int level, ProgressTracker tracker) {
+        return compress(data, level, tracker, new Context());
+    }
+
+    //Progress: 60% is spent on searching matches, 30% on writing them and 10% on remaining raw data
+    //Metrics of the call are left in context
+    public static byte[] compress(byte[] data, int level, ProgressTracker tracker, Context context) {
+        long started = System.nanoTime();
+        context.metrics.reset();
+
+        try {
+            byte[] output = compress(data, CompressionLevel.of(level), tracker, context);
+            context.metrics.addTotalNanos(System.nanoTime() - started);
+            context.metrics.addBytes(data.length, output.length);
+            return output;
+        } finally {
+            context.reset();
+        }
+    }
+
+    private static byte[] compress(byte[] data, CompressionLevel compressionLevel, ProgressTracker tracker, Context context) {
         if (data.length == 0) { return data; }
-        BitCarry bitCarry = new BitCarry(); //Used to easily manipulate bits
-        bitCarry.pushBits(1, 1); // Determine if data is compressed or no
+        BitWriter bitWriter = context.getBitWriter(); //Used to easily manipulate bits
+
+        //Already compressed data would end up stored anyway, so don't search for matches at all
+        if (Incompressible.check(data, 0, data.length)) {
+            context.metrics.addSkippedBlock();
+            bitWriter.pushBits(0, 1);
+            bitWriter.pushBytes(data);
+            tracker.finish();
+            return bitWriter.getBytes(true);
+        }
 
-        Map.Entry<HuffmanTree, List<int[]>> header = generateHeader(bitCarry, data, callbacks);
+        bitWriter.pushBits(1, 1); // Determine if data is compressed or no
+        bitWriter.pushVarLong(data.length); //Size of decompressed data, so that decoder can allocate it at once
+
+        CompressionMetrics metrics = context.metrics;
+        long matchStarted = System.nanoTime();
+        Map.Entry<HuffmanTree, List<int[]>> header = generateHeader(bitWriter, data, compressionLevel, tracker.slice(0, 0.6), context);
+        long encodeStarted = System.nanoTime();
+        metrics.addMatchNanos(encodeStarted - matchStarted - metrics.getTreeNanos());
+        PhaseEvent encodeEvent = PhaseEvent.start(CompressionType.LZSS, PhaseEvent.HUFFMAN_ENCODE);
+        ProgressTracker writeTracker = tracker.slice(0.6, 0.9);
+        ProgressTracker rawTracker = tracker.slice(0.9, 1);
         HuffmanTree huffmanTree = header.getKey();
         int position = 0; //Position for taking data from buffer
+        long lengthSum = 0, distanceSum = 0;
 
         //Write data with references
         for (int[] reference : header.getValue()) {
             while (position != reference[0]) { //Get end position where reference was taken from
-                for (Consumer<Float> callback : callbacks) { callback.accept(60+((float) position/data.length*30f)); }
+                writeTracker.update(position, data.length);
                 boolean b1 = isLeadingOne(data[position], 8);
-                if (b1) { bitCarry.pushBits(1, 1); }  //This determines if next data is raw data that starts with 1 bit
-                bitCarry.pushBits(data[position], 8);
+                if (b1) { bitWriter.pushBits(1, 1); }  //This determines if next data is raw data that starts with 1 bit
+                bitWriter.pushBits(data[position], 8);
                 position++;
             }
 
@@ -79,101 +150,133 @@ public class LZ77EncoderV2 {
             int offset = position - distance - MIN_DATA_DISTANCE; //Offset, aka, how much to go back
             int ref_length = length - MIN_DATA_LENGTH;
             boolean arg1 = (offset > ((1 << REFERENCE_SMALL_DISTANCE_SIZE) - 1));
-            bitCarry.pushBits(0b10, 2); //This determines if next data encoded reference
-            HuffmanTree.Node node = huffmanTree.getLookupTable().get(ref_length);
-            bitCarry.pushBits(node.getBinary(), node.getBinaryLength()); //Save length as huffman binary path
-            bitCarry.pushBits(arg1 ? 1 : 0, 1);
-            bitCarry.pushBits(offset, arg1 ? REFERENCE_DISTANCE_SIZE : REFERENCE_SMALL_DISTANCE_SIZE);
+            bitWriter.pushBits(0b10, 2); //This determines if next data encoded reference
+            bitWriter.pushBits(huffmanTree.getCode(ref_length), huffmanTree.getCodeLength(ref_length)); //Save length as canonical huffman code
+            bitWriter.pushBits(arg1 ? 1 : 0, 1);
+            bitWriter.pushBits(offset, arg1 ? REFERENCE_DISTANCE_SIZE : REFERENCE_SMALL_DISTANCE_SIZE);
             position += length;
+            lengthSum += length;
+            distanceSum += offset + MIN_DATA_DISTANCE;
         }
 
-        boolean isBigger = (bitCarry.getSize(false) + (data.length - position)) > data.length;
+        metrics.addMatches(header.getValue().size(), lengthSum, distanceSum);
+        metrics.addLiterals(data.length - lengthSum);
+
+        boolean isBigger = (bitWriter.getSize(false) + (data.length - position)) > data.length;
 
         //In case if compressed data is bigger than original, there is no point in storing it
         if (isBigger) {
-            bitCarry.clear();
-            bitCarry.pushBits(0, 1);
+            metrics.addStoredBlock();
+            bitWriter.clear();
+            bitWriter.pushBits(0, 1);
             position = 0;
         }
 
         //Write remaining bytes as raw data
         for (int i = position; i < data.length; i++) {
-            for (Consumer<Float> callback : callbacks) { callback.accept(90+((float) i/data.length*10f)); }
-            if (!isBigger && isLeadingOne(data[i], 8)) { bitCarry.pushBits(1, 1); }
-            bitCarry.pushBits(data[i], 8);
+            rawTracker.update(i, data.length);
+            if (!isBigger && isLeadingOne(data[i], 8)) { bitWriter.pushBits(1, 1); }
+            bitWriter.pushBits(data[i], 8);
         }
 
-        for (Consumer<Float> callback : callbacks) { callback.accept(100f); }
-        return bitCarry.getBytes(true);
+        if (!isBigger) { metrics.addHuffmanBlock(); }
+        metrics.addEncodeNanos(System.nanoTime() - encodeStarted);
+        encodeEvent.finish(data.length, (bitWriter.getSize(true) + 7) / 8);
+        tracker.finish();
+        return bitWriter.getBytes(true);
     }
 
-    @SafeVarargs
-    public static byte[] decompress(byte[] data, Consumer<Float>... callbacks) {
-        if (data.length == 0) { return data; }
-        BitCarry bitCarry = new BitCarry(data);
-        boolean compressed = bitCarry.getBits(1) == 1;
-        HuffmanTree huffmanTree = compressed ? HuffmanEncoder.decodeHeader(bitCarry) : null;
-        ArrayList<Byte> output = new ArrayList<>();
-        int position = 0;
+    public static byte[] decompress(byte[] data) {
+        return decompress(data, ProgressTracker.NONE);
+    }
 
-        while (!compressed && (bitCarry.availableSize(false) > 0)) {
-            output.add((byte) bitCarry.getBits(8, true, true));
-            long done = data.length - bitCarry.availableSize(false); //Calculate how many bytes we processed
-            for (Consumer<Float> callback : callbacks) { callback.accept((float) done/data.length*100); }
+    public static byte[] decompress(byte[] data, ProgressTracker tracker) {
+        if (data.length == 0) { return data; }
+        BitReader bitReader = new BitReader(data);
+        boolean compressed = bitReader.getBits(1) == 1;
+
+        //Raw data takes all remaining whole bytes, so its size is known without header
+        if (!compressed) {
+            byte[] output = new byte[(int) bitReader.availableSize(false)];
+            bitReader.getBytes(output, 0, output.length);
+            tracker.finish();
+            return output;
         }
 
-        while (compressed && (bitCarry.availableSize(false) > 0)) {
+        long size = bitReader.getVarLong();
+        if (size > CompressionType.MAX_DATA_SIZE) { throw new RuntimeException("lz77 data is too big: " + size); }
+        HuffmanDecoder huffmanDecoder = new HuffmanDecoder(HuffmanEncoder.decodeHeader(bitReader));
+        byte[] output = new byte[(int) size];
+        int position = 0;
+
+        while (position < output.length) {
             //D: 01110101 -> 01110101
-            if (bitCarry.getBits(1, true, false) == 0) {
-                output.add((byte) bitCarry.getBits(8, true, true));
-                position += 1;
+            if (bitReader.peekBits(1) == 0) {
+                output[position++] = (byte) bitReader.getBits(8);
                 continue;
             }
 
-            bitCarry.getBits(1, true, true); //It is definitely 1, we don't need it
+            bitReader.skipBits(1); //It is definitely 1, we don't need it
 
             //D: 11110101 -> 1 11110101
-            if ((bitCarry.getBits(1, true, false) == 1)) {
-                output.add((byte) bitCarry.getBits(8, true, true));
-                position += 1;
+            if ((bitReader.peekBits(1) == 1)) {
+                output[position++] = (byte) bitReader.getBits(8);
                 continue;
             }
 
-            bitCarry.getBits(1, true, true); //It is definitely 0, we don't need it
+            bitReader.skipBits(1); //It is definitely 0, we don't need it
 
             //R: 01110001 -> 1 0 01110001
             //R: 11110001 -> 1 0 11110001
-            int length = getHuffmanLength(bitCarry, huffmanTree) + MIN_DATA_LENGTH; //Length is encoded as huffman binary path + MIN_DATA_LENGTH
-            boolean arg1 = bitCarry.getBits(1) == 1; //Check if we have long or short distance
-            int distance = (int) bitCarry.getBits(arg1 ? REFERENCE_DISTANCE_SIZE : REFERENCE_SMALL_DISTANCE_SIZE) + MIN_DATA_DISTANCE; //Distance is encoded as 2 byte and 1 byte is 16 bits
+            int length = huffmanDecoder.decode(bitReader) + MIN_DATA_LENGTH; //Length is encoded as huffman binary path + MIN_DATA_LENGTH
+            boolean arg1 = bitReader.getBits(1) == 1; //Check if we have long or short distance
+            int distance = (int) bitReader.getBits(arg1 ? REFERENCE_DISTANCE_SIZE : REFERENCE_SMALL_DISTANCE_SIZE) + MIN_DATA_DISTANCE; //Distance is encoded as 2 byte and 1 byte is 16 bits
 
-            //Copy bytes in loop from past
-            for (int i = 0; i < length; i++) {
-                output.add(output.get((position - distance + i)));
-            }
+            if ((distance > position) || (length > output.length - position)) { throw new RuntimeException("invalid reference at position " + position); }
 
+            LZ77Encoder.copyMatch(output, position, distance, length); //Copy bytes from past
             position += length; //Increase position by reference length
-            long done = data.length - bitCarry.availableSize(false); //Calculate how many bytes we processed
-            for (Consumer<Float> callback : callbacks) { callback.accept((float) done/data.length*100); }
+            tracker.update(position, output.length);
         }
 
-        for (Consumer<Float> callback : callbacks) { callback.accept(100f); }
-        return BitCarry.copyBytes(output);
+        tracker.finish();
+        return output;
     }
 
-    public static boolean isLeadingOne(long data, int size) {
-        return (((data >>> (size-1)) & 0x1) == 1);
-    }
+    //Match finder tables and output buffer, which can be used again for the next input, see Deflate.Context
+    public static class Context {
+        private final CompressionMetrics metrics = new CompressionMetrics();
+        private HashChain hashChain;
+        private BitWriter bitWriter;
+
+        private HashChain getHashChain(byte[] data, CompressionLevel compressionLevel) {
+            if (hashChain == null) {
+                hashChain = new HashChain(data, LOOK_AHEAD_BUFFER_SIZE, SEARCH_BUFFER_SIZE, MIN_DATA_LENGTH, compressionLevel.getMaxChain(), compressionLevel.getNiceLength());
+            } else {
+                hashChain.reset(data, compressionLevel.getMaxChain(), compressionLevel.getNiceLength());
+            }
+
+            return hashChain;
+        }
+
+        private BitWriter getBitWriter() {
+            if (bitWriter == null) { bitWriter = new BitWriter(); }
+            bitWriter.clear();
+            return bitWriter;
+        }
 
-    private static int getHuffmanLength(BitCarry bitCarry, HuffmanTree huffmanTree) {
-        HuffmanTree.Node node = huffmanTree.getRoot();
+        //Metrics of the last compression with this context
+        public CompressionMetrics getMetrics() {
+            return metrics;
+        }
 
-        //Get bit by bit and navigate trough nodes to get back data until we reach the end
-        while (true) {
-            byte binary = (byte) bitCarry.getBits(1); //Yes, this is not very efficient way, but I kinda don't care
-            node = (binary == 0) ? node.getLeftNode() : node.getRightNode(); //Depending on bit we go left or right
-            if (!node.isLeaf()) { continue; } //If node is a leaf, then we reached the end and should get data
-            return node.getCharacter(); //Get length from huffman node
+        public void reset() {
+            if (hashChain != null) { hashChain.clear(); }
+            if (bitWriter != null) { bitWriter.clear(); }
         }
     }
-}
+
+    public static boolean isLeadingOne(long data, int size) {
+        return (((data >>> (size-1)) & 0x1) == 1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+package compression.stream;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+//Index of all blocks in framed nzip stream, it is written after end of stream so that blocks can be found without reading them
+//Index:   [block count: 4 bytes] [for each block: [offset: 8 bytes] [raw length: 4 bytes] [compressed length: 4 bytes]]
+//Trailer: [index offset: 8 bytes] [magic: 4 bytes "NZIX"]
+//Offset points to start of the block header (raw length) from the beginning of the stream
+
+public class BlockIndex {
+    public static final byte[] MAGIC = new byte[] { 'N', 'Z', 'I', 'X' };
+    public static final int TRAILER_SIZE = Long.BYTES + MAGIC.length;
+    public static final int ENTRY_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private long[] offsets = new long[16];
+    private int[] rawLengths = new int[16];
+    private int[] compressedLengths = new int[16];
+    private int size = 0;
+
+    public void add(long offset, int rawLength, int compressedLength) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            rawLengths = Arrays.copyOf(rawLengths, size * 2);
+            compressedLengths = Arrays.copyOf(compressedLengths, size * 2);
+        }
+
+        offsets[size] = offset;
+        rawLengths[size] = rawLength;
+        compressedLengths[size] = compressedLength;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getOffset(int block) {
+        return offsets[block];
+    }
+
+    public int getRawLength(int block) {
+        return rawLengths[block];
+    }
+
+    public int getCompressedLength(int block) {
+        return compressedLengths[block];
+    }
+
+    //Writes index and trailer, indexOffset is position in stream where index starts
+    public void write(DataOutputStream out, long indexOffset) throws IOException {
+        out.writeInt(size);
+
+        for (int i = 0; i < size; i++) {
+            out.writeLong(offsets[i]);
+            out.writeInt(rawLengths[i]);
+            out.writeInt(compressedLengths[i]);
+        }
+
+        out.writeLong(indexOffset);
+        out.write(MAGIC);
+    }
+
+    //How many bytes write() will take
+    public long getWrittenSize() {
+        return Integer.BYTES + (long) size * ENTRY_SIZE + TRAILER_SIZE;
+    }
+
+    //Reads index from the end of whole framed stream, returns null if stream has no index
+    public static BlockIndex read(ByteBuffer buffer) throws IOException {
+        int end = buffer.limit();
+        if (end - NzipFormat.HEADER_SIZE < Integer.BYTES + TRAILER_SIZE) { return null; }
+        if (!hasMagic(buffer, end - MAGIC.length)) { return null; }
+
+        long indexOffset = buffer.getLong(end - TRAILER_SIZE);
+        if ((indexOffset < NzipFormat.HEADER_SIZE) || (indexOffset > end - TRAILER_SIZE - Integer.BYTES)) { throw new IOException("Invalid block index offset: " + indexOffset); }
+        return parse(buffer.duplicate().position((int) indexOffset).limit(end - TRAILER_SIZE).slice(), indexOffset);
+    }
+
+    //Same as above, but reads only trailer and index from file, not the whole file
+    public static BlockIndex read(FileChannel channel) throws IOException {
+        long end = channel.size();
+        if (end - NzipFormat.HEADER_SIZE < Integer.BYTES + TRAILER_SIZE) { return null; }
+
+        ByteBuffer trailer = readFully(channel, end - TRAILER_SIZE, TRAILER_SIZE);
+        if (!hasMagic(trailer, Long.BYTES)) { return null; }
+
+        long indexOffset = trailer.getLong(0);
+        long indexSize = end - TRAILER_SIZE - indexOffset;
+        if ((indexOffset < NzipFormat.HEADER_SIZE) || (indexSize < Integer.BYTES) || (indexSize > Integer.MAX_VALUE)) { throw new IOException("Invalid block index offset: " + indexOffset); }
+        return parse(readFully(channel, indexOffset, (int) indexSize), indexOffset);
+    }
+
+    //Blocks must follow each other in order and all of them must end before the index, so no entry points outside of file
+    private static BlockIndex parse(ByteBuffer buffer, long indexOffset) throws IOException {
+        int size = buffer.getInt();
+        if ((size < 0) || ((long) size * ENTRY_SIZE != buffer.remaining())) { throw new IOException("Invalid block index size: " + size); }
+        BlockIndex blockIndex = new BlockIndex();
+        long previousEnd = NzipFormat.HEADER_SIZE;
+
+        for (int i = 0; i < size; i++) {
+            long offset = buffer.getLong();
+            int rawLength = buffer.getInt();
+            int compressedLength = buffer.getInt();
+            if ((offset < previousEnd) || (rawLength < 1) || (rawLength > NzipFormat.MAX_BLOCK_SIZE) || (compressedLength < 0) || (compressedLength > indexOffset)) { throw new IOException("Invalid block index entry: " + i); }
+
+            previousEnd = offset + NzipFormat.BLOCK_HEADER_SIZE + compressedLength;
+            if (previousEnd > indexOffset) { throw new IOException("Invalid block index entry: " + i); }
+            blockIndex.add(offset, rawLength, compressedLength);
+        }
+
+        return blockIndex;
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer, int position) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(position + i) != MAGIC[i]) { return false; }
+        }
+
+        return true;
+    }
+
+    //Positional read, so it can be used by many threads on the same channel at once
+    public static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) { throw new IOException("Unexpected end of file"); }
+        }
+
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,184 @@
+package compression.stream;
+
+import compression.CompressionType;
+import compression.ProgressTracker;
+import compression.jfr.PhaseEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+//Whole framed stream operations, decompression uses block index to find blocks and decode them in parallel
+//Streams without index are still decompressed, just sequentially with NzipInputStream
+//Block checksums are verified by default, "verify" turns it off when data is already known to be fine
+
+public class NzipBlocks {
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    public static byte[] compress(byte[] data, CompressionType compressionType) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        try (NzipOutputStream nzipOut = new NzipOutputStream(out, compressionType)) { nzipOut.write(data); }
+        return out.toByteArray();
+    }
+
+    //Decode all blocks at the same time, each of them into its own region of output array
+    public static byte[] decompress(byte[] data) throws IOException {
+        return decompress(data, true);
+    }
+
+    public static byte[] decompress(byte[] data, boolean verify) throws IOException {
+        NzipFormat.Header header = NzipFormat.readHeader(new DataInputStream(new ByteArrayInputStream(data)));
+        BlockIndex blockIndex = BlockIndex.read(ByteBuffer.wrap(data));
+        if (blockIndex == null) { return readAll(new ByteArrayInputStream(data), verify); }
+
+        byte[] output = new byte[(int) getRawSize(blockIndex, MAX_ARRAY_SIZE)];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(blockIndex.size());
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int position = 0;
+
+        for (int i = 0; i < blockIndex.size(); i++) {
+            int block = i, from = position;
+            long offset = blockIndex.getOffset(block);
+            if (offset + NzipFormat.BLOCK_HEADER_SIZE + blockIndex.getCompressedLength(block) > data.length) { throw new IOException("Block " + block + " is outside of stream"); }
+
+            tasks.add(pool.submit(() -> {
+                ByteBuffer compressed = ByteBuffer.wrap(data, (int) offset, NzipFormat.BLOCK_HEADER_SIZE + blockIndex.getCompressedLength(block));
+                byte[] decompressed = decompressBlock(header, blockIndex, block, compressed, verify);
+                System.arraycopy(decompressed, 0, output, from, decompressed.length);
+                return null;
+            }));
+
+            position += blockIndex.getRawLength(block);
+        }
+
+        for (ForkJoinTask<?> task : tasks) { join(task); }
+        return output;
+    }
+
+    public static long decompress(FileChannel source, WritableByteChannel target) throws IOException {
+        return decompress(source, target, ProgressTracker.NONE);
+    }
+
+    public static long decompress(FileChannel source, WritableByteChannel target, ProgressTracker tracker) throws IOException {
+        return decompress(source, target, tracker, true);
+    }
+
+    public static long decompress(FileChannel source, WritableByteChannel target, ProgressTracker tracker, boolean verify) throws IOException {
+        return decompress(source, target, tracker, verify, ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism() + 1);
+    }
+
+    //Decode blocks in parallel, but write them to target in order, at most parallelism blocks are kept in memory
+    //Progress is measured in decompressed bytes written to target
+    public static long decompress(FileChannel source, WritableByteChannel target, ProgressTracker tracker, boolean verify, ForkJoinPool pool, int parallelism) throws IOException {
+        if (parallelism < 1) { throw new IllegalArgumentException("parallelism must be at least 1"); }
+        ByteBuffer headerBuffer = BlockIndex.readFully(source, 0, NzipFormat.HEADER_SIZE);
+        NzipFormat.Header header = NzipFormat.readHeader(new DataInputStream(new ByteArrayInputStream(headerBuffer.array())));
+        BlockIndex blockIndex = BlockIndex.read(source);
+        if (blockIndex == null) { return transfer(Channels.newInputStream(source.position(0)), target, verify); }
+
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        long rawSize = getRawSize(blockIndex, Long.MAX_VALUE);
+        long written = 0;
+
+        for (int i = 0, next = 0; i < blockIndex.size(); i++) {
+            //Keep pool busy with next blocks while we are waiting for current one
+            for (; (next < blockIndex.size()) && (pending.size() < parallelism); next++) {
+                int block = next;
+                pending.add(pool.submit(() -> {
+                    PhaseEvent readEvent = PhaseEvent.start(header.getCompressionType(), PhaseEvent.READ);
+                    ByteBuffer compressed = BlockIndex.readFully(source, blockIndex.getOffset(block), NzipFormat.BLOCK_HEADER_SIZE + blockIndex.getCompressedLength(block));
+                    readEvent.finish(compressed.capacity(), compressed.capacity());
+                    return decompressBlock(header, blockIndex, block, compressed, verify);
+                }));
+            }
+
+            ByteBuffer decompressed = ByteBuffer.wrap(join(pending.poll()));
+            while (decompressed.hasRemaining()) { target.write(decompressed); }
+            written += decompressed.capacity();
+            tracker.update(written, rawSize);
+        }
+
+        tracker.finish();
+        return written;
+    }
+
+    //Lengths are checked against data which is really there before anything is allocated, damaged header must not cause OOM
+    private static byte[] decompressBlock(NzipFormat.Header header, BlockIndex blockIndex, int block, ByteBuffer buffer, boolean verify) throws IOException {
+        if (buffer.remaining() < NzipFormat.BLOCK_HEADER_SIZE) { throw new IOException("Corrupted block " + block + ", header is truncated"); }
+        int rawLength = buffer.getInt(buffer.position());
+        int compressedLength = buffer.getInt(buffer.position() + Integer.BYTES);
+        int checksum = buffer.getInt(buffer.position() + Integer.BYTES + Integer.BYTES);
+
+        if ((rawLength < 0) || (rawLength > header.getBlockSize()) || (compressedLength < 0) || (compressedLength > buffer.remaining() - NzipFormat.BLOCK_HEADER_SIZE)) {
+            throw new IOException("Corrupted block " + block + ", invalid length");
+        }
+
+        if ((rawLength != blockIndex.getRawLength(block)) || (compressedLength != blockIndex.getCompressedLength(block))) {
+            throw new IOException("Block " + block + " doesn't match block index");
+        }
+
+        byte[] compressed = new byte[compressedLength];
+        buffer.get(buffer.position() + NzipFormat.BLOCK_HEADER_SIZE, compressed);
+        byte[] decompressed = decompressBlock(header.getCompressionType(), compressed);
+        if (decompressed.length != rawLength) { throw new IOException("Corrupted block " + block + ", expected " + rawLength + " bytes, got " + decompressed.length); }
+        if (verify && (NzipFormat.checksum(decompressed, 0, decompressed.length) != checksum)) { throw new IOException("Corrupted block " + block + ", checksum mismatch"); }
+        return decompressed;
+    }
+
+    //Codecs throw RuntimeException on invalid data, in framed stream that means damaged block
+    static byte[] decompressBlock(CompressionType compressionType, byte[] compressed) throws IOException {
+        try {
+            return compressionType.decompress(compressed);
+        } catch (RuntimeException ex) {
+            throw new IOException("Corrupted block: " + ex.getMessage(), ex);
+        }
+    }
+
+    public static long getRawSize(BlockIndex blockIndex, long limit) throws IOException {
+        long size = 0;
+        for (int i = 0; i < blockIndex.size(); i++) { size += blockIndex.getRawLength(i); }
+        if (size > limit) { throw new IOException("Decompressed size " + size + " is too big"); }
+        return size;
+    }
+
+    //Exceptions thrown inside tasks come back wrapped, unwrap IOException so caller sees real reason
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException ex) {
+            for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) { throw (IOException) cause; }
+            }
+
+            throw ex;
+        }
+    }
+
+    private static byte[] readAll(InputStream in, boolean verify) throws IOException {
+        try (NzipInputStream nzipIn = new NzipInputStream(in, verify)) { return nzipIn.readAllBytes(); }
+    }
+
+    private static long transfer(InputStream in, WritableByteChannel target, boolean verify) throws IOException {
+        NzipInputStream nzipIn = new NzipInputStream(in, verify);
+        byte[] buffer = new byte[1 << 16];
+        long written = 0;
+
+        for (int length; (length = nzipIn.read(buffer)) != -1; written += length) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+            while (byteBuffer.hasRemaining()) { target.write(byteBuffer); }
+        }
+
+        return written;
+    }
+}
@@ -0,0 +1,80 @@
+package compression.stream;
+
+import compression.CompressionLevel;
+import compression.CompressionType;
+import compression.ProgressTracker;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+//Whole file operations, source file is never loaded into heap, so file size is limited only by disk
+//Compression maps source file in windows and copies every block straight from mapped memory into block buffer,
+//decompression goes trough block index and writes blocks in order, see NzipBlocks
+//Mapped windows can't be unmapped manually before Java 19 (MemorySegment), they are released by GC, so window
+//size is kept moderate, only address space is used for them, not heap
+
+public class NzipFiles {
+    public static final long MAP_WINDOW_SIZE = 1L << 28; //256 MB, must not be bigger than Integer.MAX_VALUE
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public static long compress(Path source, Path target, CompressionType compressionType) throws IOException {
+        return compress(source, target, compressionType, CompressionLevel.DEFAULT_LEVEL, ProgressTracker.NONE);
+    }
+
+    public static long compress(Path source, Path target, CompressionType compressionType, int level, ProgressTracker tracker) throws IOException {
+        return compress(source, target, compressionType, level, tracker, ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism() + 1);
+    }
+
+    //Returns size of compressed file, progress is measured in source bytes given to compressor
+    //Blocks are compressed on pool, at most parallelism of them at once, see NzipOutputStream
+    public static long compress(Path source, Path target, CompressionType compressionType, int level, ProgressTracker tracker, ForkJoinPool pool, int parallelism) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            NzipOutputStream nzipOut = new NzipOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), BUFFER_SIZE), compressionType, NzipFormat.DEFAULT_BLOCK_SIZE, pool, parallelism);
+            nzipOut.setLevel(level);
+            long size = in.size();
+
+            for (long position = 0; position < size; position += MAP_WINDOW_SIZE) {
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW_SIZE, size - position));
+
+                //Window is given in smaller parts, so that progress moves while blocks are compressed
+                while (window.hasRemaining()) {
+                    int length = Math.min(window.remaining(), NzipFormat.DEFAULT_BLOCK_SIZE);
+                    nzipOut.write(window.slice(window.position(), length));
+                    window.position(window.position() + length);
+                    tracker.update(Math.min(position + window.position(), size - 1), size); //End is reported only when output is finished
+                }
+            }
+
+            nzipOut.finish();
+            tracker.finish();
+            return out.size();
+        }
+    }
+
+    public static long decompress(Path source, Path target) throws IOException {
+        return decompress(source, target, ProgressTracker.NONE);
+    }
+
+    public static long decompress(Path source, Path target, ProgressTracker tracker) throws IOException {
+        return decompress(source, target, tracker, true);
+    }
+
+    public static long decompress(Path source, Path target, ProgressTracker tracker, boolean verify) throws IOException {
+        return decompress(source, target, tracker, verify, ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism() + 1);
+    }
+
+    //Returns size of decompressed file, source must be in framed format
+    public static long decompress(Path source, Path target, ProgressTracker tracker, boolean verify, ForkJoinPool pool, int parallelism) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return NzipBlocks.decompress(in, out, tracker, verify, pool, parallelism);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package compression.stream;
+
+import compression.CompressionType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+//Framed nzip format, so that data can be compressed and decompressed in blocks without holding whole file in memory
+//Header:  [magic: 4 bytes "NZIP"] [version: 1 byte] [compression type: 1 byte] [block size: 4 bytes]
+//Block:   [raw length: 4 bytes] [compressed length: 4 bytes] [crc32c of raw data: 4 bytes] [compressed data]
+//End:     [raw length: 4 bytes = 0]
+//After end comes BlockIndex with offsets of all blocks, sequential readers can just stop at the end
+//Every block is compressed independently with selected compression type, so blocks can be compressed in parallel
+//Checksum is of decompressed data, so it catches both damaged files and codec errors, CRC32C is intrinsic on x86 and ARM
+//and costs much less than decompression itself, readers can still skip it when data is known to be fine
+
+public class NzipFormat {
+    public static final byte[] MAGIC = new byte[] { 'N', 'Z', 'I', 'P' };
+    public static final int VERSION = 8; //2: canonical huffman headers, 3: single pass deflate, 4: variable length sizes, 5: lz77 size, 6: block checksums, 7: huffman blocks, 8: deflate stored lengths
+    public static final int HEADER_SIZE = MAGIC.length + 1 + 1 + Integer.BYTES;
+    public static final int BLOCK_HEADER_SIZE = Integer.BYTES + Integer.BYTES + Integer.BYTES;
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20; //1 MB
+    public static final int MAX_BLOCK_SIZE = 1 << 26; //64 MB, anything bigger is most likely corrupted header
+
+    public static void writeHeader(DataOutputStream out, CompressionType compressionType, int blockSize) throws IOException {
+        if ((blockSize < 1) || (blockSize > MAX_BLOCK_SIZE)) { throw new IllegalArgumentException(String.format("block size must be in range [1; %d]", MAX_BLOCK_SIZE)); }
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(compressionType.ordinal());
+        out.writeInt(blockSize);
+    }
+
+    public static Header readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) { throw new IOException("Not an nzip stream"); }
+
+        int version = in.readUnsignedByte();
+        if (version != VERSION) { throw new IOException("Unsupported nzip version: " + version); }
+
+        int type = in.readUnsignedByte();
+        if (type >= CompressionType.values().length) { throw new IOException("Unknown compression type: " + type); }
+
+        int blockSize = in.readInt();
+        if ((blockSize < 1) || (blockSize > MAX_BLOCK_SIZE)) { throw new IOException("Invalid block size: " + blockSize); }
+        return new Header(CompressionType.values()[type], blockSize);
+    }
+
+    public static int checksum(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    //Checks if stream starts with nzip magic, stream must support mark and reset
+    public static boolean isFramed(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        byte[] magic = in.readNBytes(MAGIC.length);
+        in.reset();
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    //Same for a file, version is checked later, when header is read
+    public static boolean isFramed(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        }
+    }
+
+    public static class Header {
+        private final CompressionType compressionType;
+        private final int blockSize;
+
+        public Header(CompressionType compressionType, int blockSize) {
+            this.compressionType = compressionType;
+            this.blockSize = blockSize;
+        }
+
+        public CompressionType getCompressionType() {
+            return compressionType;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+    }
+}
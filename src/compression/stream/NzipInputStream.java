@@ -0,0 +1,94 @@
+package compression.stream;
+
+import compression.CompressionType;
+import compression.jfr.PhaseEvent;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+//Reads framed nzip stream block by block, only one decompressed block is kept in memory at a time
+//Every block is checked against its checksum unless verification is turned off
+
+public class NzipInputStream extends InputStream {
+    private final DataInputStream in;
+    private final CompressionType compressionType;
+    private final int blockSize;
+    private final boolean verify;
+    private byte[] block = new byte[0];
+    private int position = 0; //Position of next byte to read in current block
+    private boolean finished = false;
+
+    public NzipInputStream(InputStream in) throws IOException {
+        this(in, true);
+    }
+
+    public NzipInputStream(InputStream in, boolean verify) throws IOException {
+        this.in = new DataInputStream(in);
+        this.verify = verify;
+        NzipFormat.Header header = NzipFormat.readHeader(this.in);
+        this.compressionType = header.getCompressionType();
+        this.blockSize = header.getBlockSize();
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    //Returns false when there are no more blocks
+    private boolean readBlock() throws IOException {
+        if (finished) { return false; }
+        int rawLength = in.readInt();
+        if (rawLength == 0) { finished = true; return false; }
+
+        int compressedLength = in.readInt();
+        int checksum = in.readInt();
+        if ((rawLength < 0) || (rawLength > blockSize)) { throw new IOException("Invalid block length: " + rawLength); }
+        if ((compressedLength < 0) || (compressedLength > NzipFormat.MAX_BLOCK_SIZE)) { throw new IOException("Invalid compressed block length: " + compressedLength); }
+
+        PhaseEvent readEvent = PhaseEvent.start(compressionType, PhaseEvent.READ);
+        byte[] compressed = new byte[compressedLength];
+        in.readFully(compressed);
+        readEvent.finish(compressedLength, compressedLength);
+        block = NzipBlocks.decompressBlock(compressionType, compressed);
+        position = 0;
+
+        if (block.length != rawLength) { throw new IOException("Corrupted block, expected " + rawLength + " bytes, got " + block.length); }
+        if (verify && (NzipFormat.checksum(block, 0, block.length) != checksum)) { throw new IOException("Corrupted block, checksum mismatch"); }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position == block.length) {
+            if (!readBlock()) { return -1; }
+        }
+
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) { throw new IndexOutOfBoundsException(); }
+        if (len == 0) { return 0; }
+
+        while (position == block.length) {
+            if (!readBlock()) { return -1; }
+        }
+
+        int size = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, size);
+        position += size;
+        return size;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,175 @@
+package compression.stream;
+
+import compression.CompressionLevel;
+import compression.CompressionType;
+import compression.NzipCompressor;
+import compression.jfr.PhaseEvent;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+//Collects written data into fixed size blocks, full blocks are compressed in parallel on ForkJoinPool
+//and written to underlying stream in the same order as they came. At most "parallelism" blocks are waiting,
+//so memory usage depends on block size and parallelism, but not on how much data goes trough it
+
+public class NzipOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final CompressionType compressionType;
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int blockSize;
+    private final ArrayDeque<PendingBlock> pending = new ArrayDeque<>(); //Blocks which are being compressed, in write order
+    private final ArrayDeque<byte[]> free = new ArrayDeque<>(); //Block buffers which can be reused
+    private final BlockIndex blockIndex = new BlockIndex();
+    private byte[] block;
+    private int level = CompressionLevel.DEFAULT_LEVEL;
+    private int count = 0; //How many bytes are in block right now
+    private long written = 0; //How many bytes are written to underlying stream, used for block index
+    private boolean finished = false;
+
+    public NzipOutputStream(OutputStream out, CompressionType compressionType) throws IOException {
+        this(out, compressionType, NzipFormat.DEFAULT_BLOCK_SIZE);
+    }
+
+    public NzipOutputStream(OutputStream out, CompressionType compressionType, int blockSize) throws IOException {
+        this(out, compressionType, blockSize, ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism() + 1);
+    }
+
+    public NzipOutputStream(OutputStream out, CompressionType compressionType, int blockSize, ForkJoinPool pool, int parallelism) throws IOException {
+        if (parallelism < 1) { throw new IllegalArgumentException("parallelism must be at least 1"); }
+        this.out = new DataOutputStream(out);
+        this.compressionType = compressionType;
+        this.pool = pool;
+        this.parallelism = parallelism;
+        this.blockSize = blockSize;
+        NzipFormat.writeHeader(this.out, compressionType, blockSize);
+        this.written = NzipFormat.HEADER_SIZE;
+        this.block = new byte[blockSize];
+    }
+
+    //Level is used for all blocks which are not submitted yet, same as in Deflater it can be changed between writes
+    public void setLevel(int level) {
+        this.level = CompressionLevel.of(level).getLevel();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (finished) { throw new IOException("Stream is already finished"); }
+        block[count++] = (byte) b;
+        if (count == block.length) { submitBlock(); }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) { throw new IOException("Stream is already finished"); }
+        if ((off < 0) || (len < 0) || (len > b.length - off)) { throw new IndexOutOfBoundsException(); }
+
+        while (len > 0) {
+            int size = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, size);
+            count += size;
+            off += size;
+            len -= size;
+            if (count == block.length) { submitBlock(); }
+        }
+    }
+
+    //Bytes go straight from buffer into block, so mapped or direct buffers are copied only once
+    public void write(ByteBuffer src) throws IOException {
+        if (finished) { throw new IOException("Stream is already finished"); }
+
+        while (src.hasRemaining()) {
+            int size = Math.min(src.remaining(), block.length - count);
+            src.get(block, count, size);
+            count += size;
+            if (count == block.length) { submitBlock(); }
+        }
+    }
+
+    //Give current block to pool and take new buffer for next one
+    private void submitBlock() throws IOException {
+        if (count == 0) { return; }
+        if (pending.size() >= parallelism) { writeBlock(); } //Wait for the oldest one, so we don't keep too many blocks in memory
+
+        byte[] data = (count == block.length) ? block : Arrays.copyOf(block, count);
+        int level = this.level;
+        int checksum = NzipFormat.checksum(data, 0, count);
+        pending.add(new PendingBlock(data, count, checksum, pool.submit(() -> compressBlock(data, level))));
+        block = free.isEmpty() ? new byte[blockSize] : free.poll();
+        count = 0;
+    }
+
+    //Every pool thread keeps its own compressor, so match finder tables are allocated once per thread, not per block
+    private byte[] compressBlock(byte[] data, int level) {
+        NzipCompressor compressor = NzipCompressor.forThread(compressionType);
+        compressor.setLevel(level);
+        return compressor.compress(data);
+    }
+
+    //Wait for the oldest block to be compressed and write it
+    private void writeBlock() throws IOException {
+        PendingBlock pendingBlock = pending.poll();
+        if (pendingBlock == null) { return; }
+        byte[] compressed = pendingBlock.task.join();
+
+        PhaseEvent writeEvent = PhaseEvent.start(compressionType, PhaseEvent.WRITE);
+        blockIndex.add(written, pendingBlock.length, compressed.length);
+        out.writeInt(pendingBlock.length);
+        out.writeInt(compressed.length);
+        out.writeInt(pendingBlock.checksum);
+        out.write(compressed);
+        writeEvent.finish(NzipFormat.BLOCK_HEADER_SIZE + compressed.length, NzipFormat.BLOCK_HEADER_SIZE + compressed.length);
+        written += NzipFormat.BLOCK_HEADER_SIZE + compressed.length;
+        if (pendingBlock.data.length == blockSize) { free.add(pendingBlock.data); }
+    }
+
+    //How many bytes of framed stream are written so far, after finish() it is the size of the whole stream
+    public long getCompressedSize() {
+        return written;
+    }
+
+    //Doesn't write partially filled block, because then blocks would be smaller and compress worse
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    //Write remaining data, end of stream and block index, but don't close underlying stream
+    public void finish() throws IOException {
+        if (finished) { return; }
+        submitBlock();
+        while (!pending.isEmpty()) { writeBlock(); }
+
+        out.writeInt(0);
+        written += Integer.BYTES;
+        blockIndex.write(out, written);
+        written += blockIndex.getWrittenSize();
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try { finish(); } finally { out.close(); }
+    }
+
+    private static class PendingBlock {
+        private final byte[] data;
+        private final int length;
+        private final int checksum;
+        private final ForkJoinTask<byte[]> task;
+
+        private PendingBlock(byte[] data, int length, int checksum, ForkJoinTask<byte[]> task) {
+            this.data = data;
+            this.length = length;
+            this.checksum = checksum;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package compression.stream;
+
+import compression.CompressionType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+//Channel version of NzipInputStream, reads framed nzip data from source channel and gives back decompressed data
+
+public class NzipReadableChannel implements ReadableByteChannel {
+    private final NzipInputStream in;
+    private final byte[] buffer = new byte[8192]; //Used only for buffers without accessible array
+    private boolean open = true;
+
+    public NzipReadableChannel(ReadableByteChannel channel) throws IOException {
+        this(channel, true);
+    }
+
+    public NzipReadableChannel(ReadableByteChannel channel, boolean verify) throws IOException {
+        this.in = new NzipInputStream(Channels.newInputStream(channel), verify);
+    }
+
+    public CompressionType getCompressionType() {
+        return in.getCompressionType();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) { throw new ClosedChannelException(); }
+        if (!dst.hasRemaining()) { return 0; }
+
+        if (dst.hasArray()) {
+            int size = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (size > 0) { dst.position(dst.position() + size); }
+            return size;
+        }
+
+        int size = in.read(buffer, 0, Math.min(dst.remaining(), buffer.length));
+        if (size > 0) { dst.put(buffer, 0, size); }
+        return size;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) { return; }
+        open = false;
+        in.close();
+    }
+}
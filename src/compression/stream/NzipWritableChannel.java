@@ -0,0 +1,53 @@
+package compression.stream;
+
+import compression.CompressionType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+//Channel version of NzipOutputStream, everything written is compressed in blocks into target channel
+
+public class NzipWritableChannel implements WritableByteChannel {
+    private final NzipOutputStream out;
+    private boolean open = true;
+
+    public NzipWritableChannel(WritableByteChannel channel, CompressionType compressionType) throws IOException {
+        this(channel, compressionType, NzipFormat.DEFAULT_BLOCK_SIZE);
+    }
+
+    public NzipWritableChannel(WritableByteChannel channel, CompressionType compressionType, int blockSize) throws IOException {
+        this.out = new NzipOutputStream(Channels.newOutputStream(channel), compressionType, blockSize);
+    }
+
+    public void setLevel(int level) {
+        out.setLevel(level);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) { throw new ClosedChannelException(); }
+        int size = src.remaining();
+        out.write(src);
+        return size;
+    }
+
+    //Write remaining data and end of stream, but don't close underlying channel
+    public void finish() throws IOException {
+        out.finish();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) { return; }
+        open = false;
+        out.close();
+    }
+}